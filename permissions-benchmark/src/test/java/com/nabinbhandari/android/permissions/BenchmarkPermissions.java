@@ -0,0 +1,84 @@
+package com.nabinbhandari.android.permissions;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+final class BenchmarkPermissions {
+
+    /**
+     * All of the permissions are granted.
+     */
+    static final String GRANTED = "granted";
+
+    /**
+     * Half of the permissions are granted.
+     */
+    static final String MIXED = "mixed";
+
+    /**
+     * None of the permissions is granted, and none can be asked again.
+     */
+    static final String BLOCKED = "blocked";
+
+    private static final String[] PERMISSIONS = new String[30];
+
+    static {
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            PERMISSIONS[i] = "android.permission.BENCHMARK_" + i;
+        }
+    }
+
+    private BenchmarkPermissions() {
+    }
+
+    /**
+     * @return the given number of distinct permissions, up to 30.
+     */
+    static String[] first(int count) {
+        return Arrays.copyOf(PERMISSIONS, count);
+    }
+
+    /**
+     * @return the number of the given permissions which are granted in the given state.
+     */
+    static int grantedCount(String state, int size) {
+        if (GRANTED.equals(state)) return size;
+        return MIXED.equals(state) ? size / 2 : 0;
+    }
+
+    /**
+     * Returns an activity in which the first given number of permissions are granted, and for
+     * which no rationale is to be shown for the others. It is not attached to a window, and
+     * must be created on a thread with a looper.
+     */
+    static Activity activity(final int grantedCount) {
+        final Context app = RuntimeEnvironment.getApplication();
+        return new Activity() {
+            @Override
+            public int checkSelfPermission(String permission) {
+                int index = Arrays.asList(PERMISSIONS).indexOf(permission);
+                return index >= 0 && index < grantedCount ? PackageManager.PERMISSION_GRANTED
+                        : PackageManager.PERMISSION_DENIED;
+            }
+
+            @Override
+            public boolean shouldShowRequestPermissionRationale(String permission) {
+                return false;
+            }
+
+            @Override
+            public Context getApplicationContext() {
+                return app;
+            }
+        };
+    }
+
+}
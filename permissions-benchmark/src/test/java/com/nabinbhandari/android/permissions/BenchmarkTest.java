@@ -0,0 +1,51 @@
+package com.nabinbhandari.android.permissions;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the benchmarks of this package, reporting the time per operation and, via the GC
+ * profiler, the allocation rate ({@code gc.alloc.rate.norm} is the number of bytes allocated
+ * per operation). Skipped unless the build is run with {@code -Pbenchmark}.
+ * <p>
+ * The benchmarks run in this process, under robolectric, rather than in forked JVMs, since the
+ * android classes are only available in the robolectric sandbox.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class BenchmarkTest {
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("permissions.benchmark"));
+        Options options = new OptionsBuilder()
+                .include(BenchmarkTest.class.getPackage().getName() + "\\..*Benchmark\\..*")
+                .forks(0)
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.NANOSECONDS)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .addProfiler(GCProfiler.class)
+                .result(System.getProperty("permissions.benchmark.results"))
+                .resultFormat(ResultFormatType.JSON)
+                .build();
+        new Runner(options).run();
+    }
+
+}
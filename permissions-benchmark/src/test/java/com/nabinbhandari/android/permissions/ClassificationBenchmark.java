@@ -0,0 +1,73 @@
+package com.nabinbhandari.android.permissions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+
+/**
+ * The set operations and result classification done for every request, with all of the
+ * permissions granted, half of them denied (half of those can't be asked again), or all of them
+ * blocked.
+ */
+@State(Scope.Thread)
+public class ClassificationBenchmark {
+
+    @Param({"1", "5", "30"})
+    public int size;
+
+    @Param({BenchmarkPermissions.GRANTED, BenchmarkPermissions.MIXED,
+            BenchmarkPermissions.BLOCKED})
+    public String state;
+
+    private String[] permissions;
+    private PermissionSet requested;
+    private PermissionSet served;
+    private PermissionSet denied;
+    private PermissionSet rationale;
+    private PermissionSet noRationale;
+
+    @Setup
+    public void setUp() {
+        permissions = BenchmarkPermissions.first(size);
+        requested = PermissionSet.of(permissions);
+        served = PermissionSet.of(Arrays.copyOf(permissions, (size + 1) / 2));
+        if (BenchmarkPermissions.GRANTED.equals(state)) {
+            denied = PermissionSet.EMPTY;
+            rationale = PermissionSet.EMPTY;
+        } else if (BenchmarkPermissions.MIXED.equals(state)) {
+            int deniedCount = (size + 1) / 2;
+            denied = PermissionSet.of(Arrays.copyOf(permissions, deniedCount));
+            rationale = PermissionSet.of(Arrays.copyOf(permissions, deniedCount / 2));
+        } else {
+            denied = requested;
+            rationale = PermissionSet.EMPTY;
+        }
+        noRationale = denied.minus(rationale);
+    }
+
+    @Benchmark
+    public PermissionSet createSet() {
+        return PermissionSet.of(permissions);
+    }
+
+    @Benchmark
+    public PermissionResult classify() {
+        return PermissionResult.classify(requested, denied, rationale, noRationale);
+    }
+
+    @Benchmark
+    public PermissionResult restrict() {
+        return PermissionResult.classify(requested, denied, rationale, noRationale)
+                .restrict(served);
+    }
+
+    @Benchmark
+    public String[] toArray() {
+        return denied.toArray();
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.nabinbhandari.android.permissions;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Looper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+
+/**
+ * The check of the grant states of a request, and the dispatch of a result to a
+ * {@link PermissionHandler}, as done once the prompt is over.
+ * <p>
+ * The denied permissions are recorded as blocked, so that {@link #check()} resolves them via
+ * {@link Permissions.Options#setResolveKnownBlocked(boolean)} without a prompt, calling
+ * {@link PermissionHandler#onBlocked(Context, PermissionSet)}. {@link #dispatch()} reports them
+ * as just denied in the mixed state, calling
+ * {@link PermissionHandler#onDenied(Context, PermissionSet)}, and as blocked in the blocked
+ * state, calling {@link PermissionHandler#onBlocked(Context, PermissionSet)}.
+ */
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    @Param({"1", "5", "30"})
+    public int size;
+
+    @Param({BenchmarkPermissions.GRANTED, BenchmarkPermissions.MIXED,
+            BenchmarkPermissions.BLOCKED})
+    public String state;
+
+    private String[] permissions;
+    private Activity activity;
+    private Permissions.Options options;
+    private PermissionResult result;
+    private int calls;
+    private final PermissionHandler handler = new PermissionHandler() {
+        @Override
+        public void onGranted() {
+            calls++;
+        }
+
+        @Override
+        public void onDenied(Context context, PermissionSet deniedPermissions) {
+            calls++;
+        }
+
+        @Override
+        public boolean onBlocked(Context context, PermissionSet blockedSet) {
+            calls++;
+            // Handled, the user is not sent to settings.
+            return true;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Permissions.disableLogging();
+        PermissionCache.invalidate();
+        if (Looper.myLooper() == null) Looper.prepare();
+        permissions = BenchmarkPermissions.first(size);
+        int grantedCount = BenchmarkPermissions.grantedCount(state, size);
+        activity = BenchmarkPermissions.activity(grantedCount);
+        options = new Permissions.Options().setResolveKnownBlocked(true);
+        PermissionSet requested = PermissionSet.of(permissions);
+        PermissionSet denied = PermissionSet.of(
+                Arrays.copyOfRange(permissions, grantedCount, size));
+        // Loads the store, so that the records below are written right away.
+        DecisionStore.load(activity);
+        DecisionStore.record(activity,
+                PermissionResult.classify(denied, denied, PermissionSet.EMPTY, denied));
+        if (BenchmarkPermissions.MIXED.equals(state)) {
+            result = PermissionResult.denied(requested, denied);
+        } else {
+            result = PermissionResult.classify(requested, denied, PermissionSet.EMPTY, denied);
+        }
+        // The grant states are cached by the first check.
+        Permissions.check(activity, permissions, null, options, handler);
+    }
+
+    @Benchmark
+    public int check() {
+        Permissions.check(activity, permissions, null, options, handler);
+        return calls;
+    }
+
+    @Benchmark
+    public int dispatch() {
+        PermissionFuture future = new PermissionFuture(Permissions.DIRECT_EXECUTOR,
+                new HandlerAdapter(activity, handler));
+        // As done by the broker before reporting permissions which are all blocked.
+        if (!result.denied.isEmpty() && result.denied.equals(result.blocked)) {
+            future.onBlocked(activity, result.getBlocked());
+        }
+        future.complete(result);
+        return calls;
+    }
+
+}
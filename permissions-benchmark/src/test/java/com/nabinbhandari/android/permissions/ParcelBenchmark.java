@@ -0,0 +1,81 @@
+package com.nabinbhandari.android.permissions;
+
+import android.os.Parcel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.Serializable;
+
+/**
+ * The hand-over of a request to {@link PermissionsActivity}: a round-trip through a marshalled
+ * {@link Parcel}, as done for the extras of the launch intent. The {@link PermissionRequest}
+ * parcelable is compared with the former extras, in which the options were serialized.
+ * <p>
+ * Under robolectric, the parcel is emulated on the JVM, so only the relative cost of both is
+ * meaningful, not the absolute times.
+ */
+@State(Scope.Thread)
+public class ParcelBenchmark {
+
+    private static final String RATIONALE = "The permissions are required for the benchmark.";
+
+    @Param({"1", "5", "30"})
+    public int size;
+
+    private String[] permissions;
+    private Permissions.Options options;
+    private PermissionRequest request;
+
+    @Setup
+    public void setUp() {
+        permissions = BenchmarkPermissions.first(size);
+        options = new Permissions.Options()
+                .setSettingsText("Open settings")
+                .setResolveKnownBlocked(true);
+        request = new PermissionRequest(RequestBroker.nextId(), PermissionSet.of(permissions),
+                RATIONALE, options, false);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public PermissionRequest parcelable() {
+        Parcel out = Parcel.obtain();
+        out.writeParcelable(request, 0);
+        Parcel in = unmarshall(out);
+        PermissionRequest request = in.readParcelable(PermissionRequest.class.getClassLoader());
+        in.recycle();
+        return request;
+    }
+
+    @Benchmark
+    public Serializable serializable() {
+        Parcel out = Parcel.obtain();
+        out.writeStringArray(permissions);
+        out.writeString(RATIONALE);
+        out.writeSerializable(options);
+        Parcel in = unmarshall(out);
+        in.createStringArray();
+        in.readString();
+        Serializable options = in.readSerializable();
+        in.recycle();
+        return options;
+    }
+
+    /**
+     * Marshals and recycles the given parcel, and returns a new one with its contents, ready to
+     * be read.
+     */
+    private static Parcel unmarshall(Parcel out) {
+        byte[] bytes = out.marshall();
+        out.recycle();
+        Parcel in = Parcel.obtain();
+        in.unmarshall(bytes, 0, bytes.length);
+        in.setDataPosition(0);
+        return in;
+    }
+
+}
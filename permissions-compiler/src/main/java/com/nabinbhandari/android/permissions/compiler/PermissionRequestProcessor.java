@@ -0,0 +1,292 @@
+package com.nabinbhandari.android.permissions.compiler;
+
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Generates a {@code PermissionDescriptor} for each {@code RequestSpec} declared in a type
+ * annotated with {@code PermissionRequests}. The permissions are deduplicated at build time.
+ * <p>
+ * If the processor option {@value #OPTION_MANIFEST} is set to the path of the manifest declaring
+ * the permissions of the app, requests for permissions which the manifest doesn't declare are
+ * reported as errors.
+ * <p>
+ * The annotations are referred to by name, so that this module doesn't depend on the android
+ * library.
+ */
+public class PermissionRequestProcessor extends AbstractProcessor {
+
+    static final String OPTION_MANIFEST = "permissions.manifest";
+
+    private static final String PACKAGE = "com.nabinbhandari.android.permissions";
+    private static final String REQUESTS = PACKAGE + ".PermissionRequests";
+    private static final String SPEC = PACKAGE + ".RequestSpec";
+    private static final String SUFFIX = "Descriptors";
+
+    private Set<String> declaredPermissions;
+    private boolean manifestRead;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(REQUESTS);
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(OPTION_MANIFEST);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element instanceof TypeElement) {
+                    generate((TypeElement) element);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type) {
+        String packageName = packageOf(type);
+        String className = flatName(type) + SUFFIX;
+        StringBuilder body = new StringBuilder();
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.METHOD) continue;
+            AnnotationMirror spec = findAnnotation(member, SPEC);
+            if (spec == null) continue;
+            ExecutableElement method = (ExecutableElement) member;
+            appendDescriptor(body, type, method, spec);
+        }
+        String source = "package " + packageName + ";\n\n"
+                + "import " + PACKAGE + ".PermissionDescriptor;\n"
+                + "import " + PACKAGE + ".Permissions;\n\n"
+                + "/**\n * Generated from {@link " + type.getQualifiedName() + "}.\n */\n"
+                + "public final class " + className + " {\n\n"
+                + body
+                + "    private " + className + "() {\n    }\n\n}\n";
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try {
+            Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type)
+                    .openWriter();
+            try {
+                writer.write(source);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not generate " + qualifiedName + ": " + e.getMessage(), type);
+        }
+    }
+
+    private void appendDescriptor(StringBuilder body, TypeElement type, ExecutableElement method,
+                                  AnnotationMirror spec) {
+        Set<String> permissions = new LinkedHashSet<>();
+        String rationale = "";
+        boolean sendBlockedToSettings = true;
+        boolean requestInCallerActivity = false;
+        boolean resolveKnownBlocked = false;
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+                processingEnv.getElementUtils().getElementValuesWithDefaults(spec).entrySet()) {
+            String name = entry.getKey().getSimpleName().toString();
+            Object value = entry.getValue().getValue();
+            if (name.equals("value")) {
+                for (Object permission : (List<?>) value) {
+                    permissions.add((String) ((AnnotationValue) permission).getValue());
+                }
+            } else if (name.equals("rationale")) {
+                rationale = (String) value;
+            } else if (name.equals("sendBlockedToSettings")) {
+                sendBlockedToSettings = (Boolean) value;
+            } else if (name.equals("requestInCallerActivity")) {
+                requestInCallerActivity = (Boolean) value;
+            } else if (name.equals("resolveKnownBlocked")) {
+                resolveKnownBlocked = (Boolean) value;
+            }
+        }
+        if (permissions.isEmpty()) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "No permissions to request.", method, spec);
+            return;
+        }
+        Set<String> declared = declaredPermissions();
+        if (declared != null) {
+            for (String permission : permissions) {
+                if (!declared.contains(permission)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            permission + " is not declared in the manifest.", method, spec);
+                }
+            }
+        }
+
+        String methodName = method.getSimpleName().toString();
+        StringBuilder array = new StringBuilder();
+        for (String permission : permissions) {
+            if (array.length() > 0) array.append(", ");
+            array.append(literal(permission));
+        }
+        StringBuilder options = new StringBuilder();
+        if (!sendBlockedToSettings) options.append(".sendDontAskAgainToSettings(false)");
+        if (requestInCallerActivity) options.append(".setRequestInCallerActivity(true)");
+        if (resolveKnownBlocked) options.append(".setResolveKnownBlocked(true)");
+
+        body.append("    /**\n     * Generated from {@link ").append(type.getQualifiedName())
+                .append('#').append(methodName).append("}.\n     */\n")
+                .append("    public static final PermissionDescriptor ")
+                .append(constantName(methodName)).append(" = new PermissionDescriptor(")
+                .append("\n            new String[]{").append(array).append("}, ")
+                .append(rationale.isEmpty() ? "(String) null" : literal(rationale)).append(", ")
+                .append(options.length() == 0 ? "null" : "new Permissions.Options()" + options)
+                .append(");\n\n");
+    }
+
+    /**
+     * @return the permissions declared in the manifest given via {@value #OPTION_MANIFEST}, or
+     * null if the option is not set or the manifest can't be read, in which case the
+     * permissions are not validated.
+     */
+    private Set<String> declaredPermissions() {
+        if (manifestRead) return declaredPermissions;
+        manifestRead = true;
+        String path = processingEnv.getOptions().get(OPTION_MANIFEST);
+        if (path == null) return null;
+        Set<String> permissions = new HashSet<>();
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            org.w3c.dom.Element root = factory.newDocumentBuilder().parse(new File(path))
+                    .getDocumentElement();
+            for (String tag : new String[]{"uses-permission", "uses-permission-sdk-23"}) {
+                NodeList nodes = root.getElementsByTagName(tag);
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    org.w3c.dom.Element node = (org.w3c.dom.Element) nodes.item(i);
+                    permissions.add(node.getAttributeNS(
+                            "http://schemas.android.com/apk/res/android", "name"));
+                }
+            }
+        } catch (Exception e) {
+            // Reported once, rather than every permission as undeclared.
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not read the manifest " + path + " given via -A" + OPTION_MANIFEST
+                            + ": " + e.getMessage());
+            return null;
+        }
+        return declaredPermissions = permissions;
+    }
+
+    /**
+     * @return the given string as a java string literal, quoted and escaped.
+     */
+    static String literal(String value) {
+        StringBuilder literal = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    literal.append("\\\"");
+                    break;
+                case '\\':
+                    literal.append("\\\\");
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                case '\t':
+                    literal.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x7f) {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    private static AnnotationMirror findAnnotation(Element element,
+                                                   String name) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(name)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static String packageOf(TypeElement type) {
+        Element element = type;
+        while (!(element instanceof PackageElement)) {
+            element = element.getEnclosingElement();
+        }
+        return ((PackageElement) element).getQualifiedName().toString();
+    }
+
+    /**
+     * @return the simple names of the type and its enclosing types, joined by underscores.
+     */
+    private static String flatName(TypeElement type) {
+        List<String> names = new ArrayList<>();
+        Element element = type;
+        while (element instanceof TypeElement) {
+            names.add(0, element.getSimpleName().toString());
+            element = element.getEnclosingElement();
+        }
+        StringBuilder name = new StringBuilder();
+        for (String part : names) {
+            if (name.length() > 0) name.append('_');
+            name.append(part);
+        }
+        return name.toString();
+    }
+
+    /**
+     * @return the given camel case name in upper snake case, e.g. "backgroundLocation" to
+     * "BACKGROUND_LOCATION".
+     */
+    static String constantName(String name) {
+        StringBuilder constant = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0) constant.append('_');
+            constant.append(Character.toUpperCase(c));
+        }
+        return constant.toString();
+    }
+
+}
@@ -0,0 +1,10 @@
+package com.nabinbhandari.android.permissions;
+
+import android.app.Activity;
+
+/**
+ * An empty activity making requests in the instrumented tests, standing for the activity of an
+ * app.
+ */
+public class CallerActivity extends Activity {
+}
@@ -0,0 +1,128 @@
+package com.nabinbhandari.android.permissions;
+
+import android.Manifest;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SdkSuppress;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the time from the check of a request to the issue of the system permission request
+ * (i.e. from the tap to the prompt, short of the system dialog itself), as reported by the
+ * phases of {@link PermissionMetricsListener}, when the flow runs in the calling activity via
+ * {@link PermissionsFragment} and when it runs in a newly launched {@link PermissionsActivity}.
+ * The medians are logged, and the in-activity mode must be the faster one.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = Build.VERSION_CODES.M)
+public class PromptLatencyTest {
+
+    private static final String TAG = "PromptLatencyTest";
+    // Not declared in the manifest, so the system denies it right away, without a dialog.
+    private static final String[] CALENDAR = {Manifest.permission.READ_CALENDAR};
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 20;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final Map<Integer, Long> checked = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> issued = new ConcurrentHashMap<>();
+    private final PermissionMetricsListener listener = new PermissionMetricsListener() {
+        @Override
+        public void onPhase(int requestId, int phase, long timestampNanos) {
+            if (phase == PHASE_CHECK) {
+                checked.put(requestId, timestampNanos);
+            } else if (phase == PHASE_REQUEST_ISSUED) {
+                issued.put(requestId, timestampNanos);
+            }
+        }
+
+        @Override
+        public void onLog(String message) {
+        }
+    };
+
+    private Instrumentation instrumentation;
+    private CallerActivity activity;
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        activity = (CallerActivity) instrumentation.startActivitySync(
+                new Intent(instrumentation.getTargetContext(), CallerActivity.class)
+                        .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+        PermissionCache.invalidate();
+        Permissions.setMetricsListener(listener);
+    }
+
+    @After
+    public void tearDown() {
+        Permissions.setMetricsListener(null);
+        activity.finish();
+        PermissionCache.invalidate();
+    }
+
+    @Test
+    public void promptInCallerActivityIsFaster() throws Exception {
+        long[] activityMode = measure(false);
+        long[] fragmentMode = measure(true);
+
+        long activityMedian = activityMode[activityMode.length / 2];
+        long fragmentMedian = fragmentMode[fragmentMode.length / 2];
+        Log.i(TAG, "Check to request issued, median: PermissionsActivity "
+                + activityMedian / 1000 + " us, in caller activity " + fragmentMedian / 1000
+                + " us");
+        assertTrue("In caller activity: " + fragmentMedian + " ns, PermissionsActivity: "
+                + activityMedian + " ns", fragmentMedian < activityMedian);
+    }
+
+    /**
+     * Makes requests one after the other from the calling activity, in the given mode.
+     *
+     * @return the sorted times from the check to the issue of the system request, in nanos.
+     */
+    private long[] measure(boolean inCallerActivity) throws Exception {
+        // Blocked permissions are reported without the settings prompt, which needs a user.
+        final Permissions.Options options = new Permissions.Options()
+                .setRequestInCallerActivity(inCallerActivity)
+                .sendDontAskAgainToSettings(false);
+        long[] times = new long[ITERATIONS];
+        for (int i = -WARMUP; i < ITERATIONS; i++) {
+            final PermissionFuture[] future = new PermissionFuture[1];
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    future[0] = Permissions.request(activity, CALENDAR, null, options,
+                            Permissions.DIRECT_EXECUTOR, null);
+                }
+            });
+            future[0].get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            instrumentation.waitForIdleSync();
+            int requestId = future[0].getRequestId();
+            Long start = checked.remove(requestId);
+            Long end = issued.remove(requestId);
+            assertNotNull("No check phase", start);
+            assertNotNull("No request issued", end);
+            if (i >= 0) times[i] = end - start;
+        }
+        Arrays.sort(times);
+        return times;
+    }
+
+}
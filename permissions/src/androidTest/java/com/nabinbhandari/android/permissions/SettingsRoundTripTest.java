@@ -0,0 +1,105 @@
+package com.nabinbhandari.android.permissions;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.provider.Settings;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SdkSuppress;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a request for a blocked permission through the settings screen of the app, and checks
+ * that the return from settings is handled by the host which sent the user there, without
+ * launching another {@link PermissionsActivity}.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = Build.VERSION_CODES.M)
+public class SettingsRoundTripTest {
+
+    // Not declared in the manifest, so it can't be granted and is never asked with a rationale.
+    private static final String[] CALENDAR = {Manifest.permission.READ_CALENDAR};
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private Instrumentation instrumentation;
+    private Context context;
+    private Instrumentation.ActivityMonitor hostMonitor;
+    private Instrumentation.ActivityMonitor settingsMonitor;
+    private volatile int settingsPrompts;
+
+    private final RationaleRenderer renderer = new RationaleRenderer() {
+        @Override
+        public void showRationale(Activity activity, String title, String rationale,
+                                  Callback callback) {
+            callback.onResult(true);
+        }
+
+        @Override
+        public void showSettingsPrompt(Activity activity, String title, String message,
+                                       String settingsText, Callback callback) {
+            settingsPrompts++;
+            callback.onResult(true);
+        }
+
+        @Override
+        public void dismiss(Activity activity) {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = instrumentation.getTargetContext();
+        hostMonitor = instrumentation.addMonitor(PermissionsActivity.class.getName(), null,
+                false);
+        IntentFilter settings = new IntentFilter(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
+        settings.addDataScheme("package");
+        // The settings screen is not shown: the user comes back right away, without changes.
+        settingsMonitor = instrumentation.addMonitor(settings,
+                new Instrumentation.ActivityResult(Activity.RESULT_CANCELED, null), true);
+        PermissionCache.invalidate();
+    }
+
+    @After
+    public void tearDown() {
+        instrumentation.removeMonitor(hostMonitor);
+        instrumentation.removeMonitor(settingsMonitor);
+        PermissionCache.invalidate();
+    }
+
+    @Test
+    public void returnFromSettingsIsHandledBySameHost() throws Exception {
+        Permissions.Options options = new Permissions.Options().setRationaleRenderer(renderer);
+        PermissionFuture future = new PermissionFuture(Permissions.DIRECT_EXECUTOR, null);
+        // As submitted for permissions known to be blocked: the user is sent to settings.
+        RequestBroker.submit(context, new PermissionRequest(0, PermissionSet.of(CALENDAR), null,
+                options, true), future);
+
+        PermissionResult result = future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        instrumentation.waitForIdleSync();
+
+        assertFalse(result.isGranted());
+        assertEquals(PermissionSet.of(CALENDAR), result.getBlocked());
+        assertEquals(1, settingsPrompts);
+        assertEquals(1, settingsMonitor.getHits());
+        assertEquals(1, hostMonitor.getHits());
+        assertTrue(hostMonitor.getLastActivity().isFinishing());
+        assertEquals(0, RequestBroker.getRetainedCount());
+    }
+
+}
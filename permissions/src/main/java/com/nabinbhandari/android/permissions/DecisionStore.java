@@ -0,0 +1,196 @@
+package com.nabinbhandari.android.permissions;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent record of the outcome of the latest request of each permission, with an in-memory
+ * index. It is used to tell permissions which have been set not to ask again apart from the ones
+ * which have never been asked, without launching {@link PermissionsActivity}.
+ * <p>
+ * Each permission is stored as a single long: the time of the decision in milliseconds, shifted
+ * left by {@link #FLAG_BITS}, combined with the decision flags. Granted permissions are not
+ * stored, and records are removed whenever a permission is found to be granted.
+ * <p>
+ * The store is loaded on the background thread of the library, when a prompt is started or on
+ * the first use, and the preferences file is never read on the calling thread nor while holding
+ * the lock of the store. Until it is loaded, no permission has a record: reads report the state
+ * as unknown (no flags, not blocked), and updates are applied on the background thread once the
+ * store is loaded.
+ */
+final class DecisionStore {
+
+    static final int FLAG_DENIED = 1;
+    static final int FLAG_BLOCKED = 2;
+    static final int FLAG_JUST_BLOCKED = 4;
+    private static final int FLAG_BITS = 3;
+
+    private static final String PREFS_NAME = "com.nabinbhandari.android.permissions.decisions";
+
+    private static SharedPreferences preferences;
+    private static Map<String, Long> index;
+    private static boolean loading;
+
+    private DecisionStore() {
+    }
+
+    /**
+     * Loads the store on the background thread, if not loaded yet.
+     */
+    static void preload(Context context) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (DecisionStore.class) {
+            if (index != null || loading) return;
+            loading = true;
+        }
+        Permissions.backgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                load(appContext);
+            }
+        });
+    }
+
+    /**
+     * Loads the store on the calling thread, if not loaded yet. The preferences file is read
+     * without holding the lock, so that the reads and {@link #onGranted(String)} don't wait for
+     * it. Called on the background thread, or directly where blocking is fine, e.g. benchmarks.
+     */
+    static void load(Context context) {
+        synchronized (DecisionStore.class) {
+            if (index != null) return;
+        }
+        SharedPreferences loadedPreferences = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        Map<String, Long> loadedIndex = new HashMap<>();
+        for (Map.Entry<String, ?> entry : loadedPreferences.getAll().entrySet()) {
+            if (entry.getValue() instanceof Long) {
+                loadedIndex.put(entry.getKey(), (Long) entry.getValue());
+            }
+        }
+        synchronized (DecisionStore.class) {
+            if (index != null) return;
+            preferences = loadedPreferences;
+            index = loadedIndex;
+            loading = false;
+        }
+    }
+
+    /**
+     * Records the outcome of a permission request for each of the requested permissions. If the
+     * store hasn't been loaded yet, it is loaded and updated on the background thread.
+     */
+    static void record(Context context, final PermissionResult result) {
+        final Context appContext = context.getApplicationContext();
+        final long now = System.currentTimeMillis();
+        synchronized (DecisionStore.class) {
+            if (index != null) {
+                write(result, now);
+                return;
+            }
+        }
+        Permissions.backgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                load(appContext);
+                synchronized (DecisionStore.class) {
+                    write(result, now);
+                }
+            }
+        });
+    }
+
+    private static void write(PermissionResult result, long now) {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String permission : result.requested) {
+            if (!result.denied.contains(permission)) {
+                index.remove(permission);
+                editor.remove(permission);
+                continue;
+            }
+            int flags = FLAG_DENIED;
+            if (result.blocked.contains(permission)) flags |= FLAG_BLOCKED;
+            if (result.justBlocked.contains(permission)) flags |= FLAG_JUST_BLOCKED;
+            long value = (now << FLAG_BITS) | flags;
+            index.put(permission, value);
+            editor.putLong(permission, value);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Reconciles the store with the real grant state, by removing the record of a permission
+     * which has been found to be granted. Does nothing if the store has not been loaded yet.
+     */
+    static synchronized void onGranted(String permission) {
+        if (index != null && index.remove(permission) != null) {
+            preferences.edit().remove(permission).apply();
+        }
+    }
+
+    /**
+     * Removes the blocked flags of a permission which has been found not to be blocked. If the
+     * store hasn't been loaded yet, it is loaded and updated on the background thread.
+     */
+    static void onNotBlocked(Context context, final String permission) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (DecisionStore.class) {
+            if (index != null) {
+                clearBlocked(permission);
+                return;
+            }
+        }
+        Permissions.backgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                load(appContext);
+                synchronized (DecisionStore.class) {
+                    clearBlocked(permission);
+                }
+            }
+        });
+    }
+
+    private static void clearBlocked(String permission) {
+        Long value = index.get(permission);
+        if (value != null && (value & FLAG_BLOCKED) != 0L) {
+            long updated = value & ~(long) (FLAG_BLOCKED | FLAG_JUST_BLOCKED);
+            index.put(permission, updated);
+            preferences.edit().putLong(permission, updated).apply();
+        }
+    }
+
+    /**
+     * @return the flags of the latest request of the permission, or 0 if there is no record or
+     * the store is still being loaded.
+     */
+    static int getFlags(Context context, String permission) {
+        Long value = get(context, permission);
+        return value == null ? 0 : (int) (value & ((1 << FLAG_BITS) - 1));
+    }
+
+    /**
+     * @return true if the latest request of the permission resulted in it being blocked, false
+     * if it didn't or if the store is still being loaded.
+     */
+    static boolean isBlocked(Context context, String permission) {
+        Long value = get(context, permission);
+        return value != null && (value & FLAG_BLOCKED) != 0L;
+    }
+
+    /**
+     * @return the record of the permission, or null if there is none or the store is not loaded
+     * yet, in which case it is loaded on the background thread.
+     */
+    private static Long get(Context context, String permission) {
+        synchronized (DecisionStore.class) {
+            if (index != null) return index.get(permission);
+        }
+        preload(context);
+        return null;
+    }
+
+}
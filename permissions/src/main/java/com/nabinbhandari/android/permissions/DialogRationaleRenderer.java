@@ -0,0 +1,87 @@
+package com.nabinbhandari.android.permissions;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+
+/**
+ * The default {@link RationaleRenderer}, showing an {@link AlertDialog}. The dialog builder is
+ * kept for the activity it was created for, so that successive prompts in the same activity
+ * (e.g. a reused {@link PermissionsActivity}) don't create it again. The builder is released
+ * when its activity is destroyed.
+ */
+final class DialogRationaleRenderer implements RationaleRenderer {
+
+    static final DialogRationaleRenderer INSTANCE = new DialogRationaleRenderer();
+
+    private Activity builderActivity;
+    private AlertDialog.Builder builder;
+    private AlertDialog dialog;
+
+    private DialogRationaleRenderer() {
+    }
+
+    @Override
+    public void showRationale(Activity activity, String title, String rationale,
+                              Callback callback) {
+        show(activity, title, rationale, activity.getString(android.R.string.ok), callback);
+    }
+
+    @Override
+    public void showSettingsPrompt(Activity activity, String title, String message,
+                                   String settingsText, Callback callback) {
+        show(activity, title, message, settingsText, callback);
+    }
+
+    private void show(Activity activity, String title, String message, String positiveText,
+                      final Callback callback) {
+        DialogInterface.OnClickListener listener = new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                DialogRationaleRenderer.this.dialog = null;
+                callback.onResult(which == DialogInterface.BUTTON_POSITIVE);
+            }
+        };
+        dialog = builder(activity).setTitle(title)
+                .setMessage(message)
+                .setPositiveButton(positiveText, listener)
+                .setNegativeButton(android.R.string.cancel, listener)
+                .setOnCancelListener(new DialogInterface.OnCancelListener() {
+                    @Override
+                    public void onCancel(DialogInterface dialog) {
+                        DialogRationaleRenderer.this.dialog = null;
+                        callback.onResult(false);
+                    }
+                }).create();
+        dialog.show();
+    }
+
+    @Override
+    public void dismiss(Activity activity) {
+        if (dialog != null && builderActivity == activity) {
+            // Dismissing (unlike cancelling) doesn't invoke the callback.
+            dialog.dismiss();
+            dialog = null;
+        }
+    }
+
+    private AlertDialog.Builder builder(Activity activity) {
+        if (builderActivity != activity) {
+            builder = new AlertDialog.Builder(activity);
+            builderActivity = activity;
+        }
+        return builder;
+    }
+
+    /**
+     * Releases the cached builder if it belongs to the given activity, which is being destroyed.
+     */
+    void onActivityDestroyed(Activity activity) {
+        if (builderActivity == activity) {
+            builderActivity = null;
+            builder = null;
+            dialog = null;
+        }
+    }
+
+}
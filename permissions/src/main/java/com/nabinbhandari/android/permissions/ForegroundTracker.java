@@ -0,0 +1,105 @@
+package com.nabinbhandari.android.permissions;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Bundle;
+
+/**
+ * Detects when the app comes back to the foreground, so that cached permission states which
+ * might have been changed from the system settings can be discarded and the observers notified
+ * of the changes, and when activities are destroyed, so that the pending requests made from them
+ * can be dropped. It also tells {@link StartupScheduler} when activities are resumed.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+class ForegroundTracker implements Application.ActivityLifecycleCallbacks, ComponentCallbacks2 {
+
+    private static volatile boolean registered;
+
+    private final Context appContext;
+    private boolean inBackground;
+
+    private ForegroundTracker(Context appContext) {
+        this.appContext = appContext;
+    }
+
+    /**
+     * Registers the tracker with the application of the given context, if not registered yet.
+     */
+    static void register(Context context) {
+        if (registered || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) return;
+        synchronized (ForegroundTracker.class) {
+            if (registered) return;
+            Context appContext = context.getApplicationContext();
+            if (appContext instanceof Application) {
+                ForegroundTracker tracker = new ForegroundTracker(appContext);
+                ((Application) appContext).registerActivityLifecycleCallbacks(tracker);
+                appContext.registerComponentCallbacks(tracker);
+                registered = true;
+            }
+        }
+    }
+
+    private void onForeground() {
+        Permissions.log("App returned to foreground.");
+        PermissionCache.invalidate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            PermissionWatcher.refresh(appContext);
+        }
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        if (inBackground) {
+            inBackground = false;
+            onForeground();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level == TRIM_MEMORY_UI_HIDDEN) {
+            inBackground = true;
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+        StartupScheduler.INSTANCE.onActivityResumed(activity);
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        RequestBroker.onOwnerDestroyed(activity);
+        DialogRationaleRenderer.INSTANCE.onActivityDestroyed(activity);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+    }
+
+}
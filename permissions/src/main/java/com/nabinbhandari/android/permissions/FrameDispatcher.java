@@ -0,0 +1,67 @@
+package com.nabinbhandari.android.permissions;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor for {@link Permissions.Options#DISPATCH_NEXT_FRAME}: runs the callbacks on the main
+ * thread, on the first frame after every {@link PermissionsActivity} is gone, so that the work
+ * started by the callbacks doesn't compete with the exit animation of the activity.
+ */
+final class FrameDispatcher implements Executor, Choreographer.FrameCallback {
+
+    static final FrameDispatcher INSTANCE = new FrameDispatcher();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // The following fields are accessed from the main thread only.
+    private final List<Runnable> pending = new ArrayList<>();
+    private int liveHosts;
+    private boolean scheduled;
+
+    private FrameDispatcher() {
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                pending.add(command);
+                schedule();
+            }
+        });
+    }
+
+    void onHostCreated() {
+        liveHosts++;
+    }
+
+    void onHostDestroyed() {
+        liveHosts--;
+        schedule();
+    }
+
+    private void schedule() {
+        if (liveHosts > 0 || scheduled || pending.isEmpty()) return;
+        scheduled = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled = false;
+        // The activity may have been recreated in the meantime.
+        if (liveHosts > 0) return;
+        List<Runnable> commands = new ArrayList<>(pending);
+        pending.clear();
+        for (Runnable command : commands) {
+            command.run();
+        }
+    }
+
+}
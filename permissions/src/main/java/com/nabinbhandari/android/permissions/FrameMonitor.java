@@ -0,0 +1,80 @@
+package com.nabinbhandari.android.permissions;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Counts the frames dropped right after a callback has been dispatched, for a
+ * {@link PermissionMetricsListener.FrameListener}. The intervals are measured from vsync to
+ * vsync, starting with the first frame after the dispatch. The frame period is taken as the
+ * shortest interval seen, capped at 60 Hz.
+ */
+final class FrameMonitor implements Choreographer.FrameCallback, Runnable {
+
+    private static final int FRAMES = 8;
+    private static final long MAX_PERIOD_NANOS = 1000000000L / 60;
+
+    private final int requestId;
+    private final long[] intervals = new long[FRAMES];
+    private final long startNanos;
+    // 0 until the first frame after the dispatch.
+    private long lastFrameNanos;
+    private int frames;
+
+    private FrameMonitor(int requestId, long startNanos) {
+        this.requestId = requestId;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Starts monitoring the frames, if a frame listener is set. To be called right before the
+     * callback of the given request is invoked, from any thread.
+     */
+    static void onDispatch(int requestId) {
+        if (!(Permissions.metricsListener instanceof PermissionMetricsListener.FrameListener)) {
+            return;
+        }
+        FrameMonitor monitor = new FrameMonitor(requestId, System.nanoTime());
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            monitor.run();
+        } else {
+            new Handler(Looper.getMainLooper()).post(monitor);
+        }
+    }
+
+    @Override
+    public void run() {
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // Frames whose vsync preceded the dispatch don't count. The interval from the dispatch
+        // to the first vsync is only part of a frame, so it is not measured either.
+        if (lastFrameNanos == 0L) {
+            if (frameTimeNanos > startNanos) lastFrameNanos = frameTimeNanos;
+        } else if (frameTimeNanos > lastFrameNanos) {
+            intervals[frames++] = frameTimeNanos - lastFrameNanos;
+            lastFrameNanos = frameTimeNanos;
+        }
+        if (frames < FRAMES) {
+            Choreographer.getInstance().postFrameCallback(this);
+            return;
+        }
+        long period = MAX_PERIOD_NANOS;
+        for (long interval : intervals) {
+            period = Math.min(period, interval);
+        }
+        int dropped = 0;
+        for (long interval : intervals) {
+            dropped += Math.max(0, Math.round((double) interval / period) - 1);
+        }
+        PermissionMetricsListener listener = Permissions.metricsListener;
+        if (listener instanceof PermissionMetricsListener.FrameListener) {
+            ((PermissionMetricsListener.FrameListener) listener)
+                    .onDispatchFrames(requestId, dropped);
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.nabinbhandari.android.permissions;
+
+import android.content.Context;
+
+/**
+ * Adapts a {@link PermissionHandler} to the {@link PermissionCallback} based request API, mapping
+ * each result to the matching handler callback.
+ */
+class HandlerAdapter implements PermissionCallback {
+
+    private final Context context;
+    private final PermissionHandler handler;
+    private boolean blockedHandled;
+
+    HandlerAdapter(Context context, PermissionHandler handler) {
+        this.context = context.getApplicationContext();
+        this.handler = handler;
+    }
+
+    /**
+     * @return true if the default action for blocked permissions is to be taken.
+     */
+    boolean onBlocked(Context context, PermissionSet blocked) {
+        blockedHandled = handler.onBlocked(context, blocked);
+        return !blockedHandled;
+    }
+
+    @Override
+    public void onResult(PermissionResult result) {
+        if (result.isGranted()) {
+            handler.onGranted();
+        } else if (result.timedOut) {
+            handler.onTimedOut(context, result.getDenied());
+        } else if (!result.justBlocked.isEmpty()) {
+            handler.onJustBlocked(context, result.getJustBlocked(), result.getDenied());
+        } else if (!result.denied.equals(result.blocked) || !blockedHandled) {
+            handler.onDenied(context, result.getDenied());
+        }
+    }
+
+}
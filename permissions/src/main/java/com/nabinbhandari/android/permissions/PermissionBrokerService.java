@@ -0,0 +1,57 @@
+package com.nabinbhandari.android.permissions;
+
+import android.annotation.TargetApi;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.ResultReceiver;
+
+/**
+ * A bound service in the main process, serving the permission requests of the other processes
+ * of the app.
+ *
+ * @see Permissions.Options#setUseSharedBroker(boolean)
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class PermissionBrokerService extends Service {
+
+    private final Messenger messenger = new Messenger(new Handler(Looper.getMainLooper()) {
+        @SuppressWarnings("deprecation")
+        @Override
+        public void handleMessage(Message msg) {
+            Bundle data = msg.getData();
+            data.setClassLoader(PermissionRequest.class.getClassLoader());
+            String cancelled = data.getString(SharedBroker.EXTRA_CANCEL);
+            if (cancelled != null) {
+                SharedBroker.cancel(cancelled);
+                return;
+            }
+            PermissionRequest request;
+            ResultReceiver receiver;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                request = data.getParcelable(PermissionsActivity.EXTRA_REQUEST,
+                        PermissionRequest.class);
+                receiver = data.getParcelable(SharedBroker.EXTRA_RECEIVER, ResultReceiver.class);
+            } else {
+                request = data.getParcelable(PermissionsActivity.EXTRA_REQUEST);
+                receiver = data.getParcelable(SharedBroker.EXTRA_RECEIVER);
+            }
+            String token = data.getString(SharedBroker.EXTRA_TOKEN);
+            if (request != null && receiver != null && token != null) {
+                SharedBroker.submit(PermissionBrokerService.this, request, token, receiver);
+            }
+        }
+    });
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return messenger.getBinder();
+    }
+
+}
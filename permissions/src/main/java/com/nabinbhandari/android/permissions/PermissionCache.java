@@ -0,0 +1,140 @@
+package com.nabinbhandari.android.permissions;
+
+import android.annotation.TargetApi;
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of permission grant states.
+ * <p>
+ * Every call to {@link Context#checkSelfPermission(String)} is a binder round-trip into the system
+ * server, so the library consults this cache first. The cache is invalidated when a permission
+ * request completes, when the user returns from the settings screen and when the app comes back
+ * to the foreground.
+ * <p>
+ * Special accesses are checked via their {@link SpecialAccessChecker}. If the checker names an
+ * app op, its cached state is also dropped as soon as the app op changes.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class PermissionCache {
+
+    private static final Map<String, Integer> states = new ConcurrentHashMap<>();
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+    private static final Set<String> watchedOps =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static volatile int generation;
+
+    private PermissionCache() {
+    }
+
+    /**
+     * Returns the grant state of the given permission, querying the system only on a cache miss.
+     *
+     * @param context    the android context.
+     * @param permission the permission to check.
+     * @return {@link android.content.pm.PackageManager#PERMISSION_GRANTED} or
+     * {@link android.content.pm.PackageManager#PERMISSION_DENIED}.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    static int checkSelfPermission(Context context, String permission) {
+        Integer state = states.get(permission);
+        if (state != null) {
+            hitCount.incrementAndGet();
+            return state;
+        }
+        missCount.incrementAndGet();
+        int generation = PermissionCache.generation;
+        SpecialAccessChecker checker = Permissions.getChecker(permission);
+        int result;
+        if (checker == null) {
+            result = context.checkSelfPermission(permission);
+        } else {
+            result = checker.isGranted(context, permission) ?
+                    PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+            watch(context, permission, checker.getAppOp(permission));
+        }
+        if (generation == PermissionCache.generation) {
+            states.put(permission, result);
+        }
+        if (result == PackageManager.PERMISSION_GRANTED) {
+            DecisionStore.onGranted(permission);
+        }
+        return result;
+    }
+
+    /**
+     * Drops the cached state of the given special access whenever its app op changes, for as
+     * long as the process lives. Each app op is watched once.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void watch(Context context, final String permission, String appOp) {
+        if (appOp == null || !watchedOps.add(appOp)) return;
+        AppOpsManager appOps = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        if (appOps == null) return;
+        final String packageName = context.getPackageName();
+        appOps.startWatchingMode(appOp, packageName, new AppOpsManager.OnOpChangedListener() {
+            @Override
+            public void onOpChanged(String op, String changedPackage) {
+                if (!packageName.equals(changedPackage)) return;
+                generation++;
+                states.remove(permission);
+            }
+        });
+    }
+
+    /**
+     * Drops the cached state of the given permission, so that its next check queries the system
+     * again.
+     */
+    static void evict(String permission) {
+        generation++;
+        states.remove(permission);
+    }
+
+    /**
+     * Stores a grant state obtained elsewhere, e.g. from another process.
+     */
+    static void put(String permission, int state) {
+        states.put(permission, state);
+    }
+
+    /**
+     * Clears all of the cached grant states, so that the next check queries the system again.
+     */
+    public static void invalidate() {
+        generation++;
+        states.clear();
+    }
+
+    /**
+     * @return the number of checks which have been answered from the cache.
+     */
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of checks which had to query the system.
+     */
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Resets the hit and miss counters to zero.
+     */
+    public static void resetStats() {
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+}
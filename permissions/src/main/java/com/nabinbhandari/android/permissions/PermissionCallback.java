@@ -0,0 +1,17 @@
+package com.nabinbhandari.android.permissions;
+
+/**
+ * Callback for receiving the result of
+ * {@link Permissions#request(android.content.Context, String[], String, Permissions.Options,
+ * java.util.concurrent.Executor, PermissionCallback)}.
+ */
+public interface PermissionCallback {
+
+    /**
+     * Called on the executor given with the request, once the request has been resolved.
+     *
+     * @param result the result of the request.
+     */
+    void onResult(PermissionResult result);
+
+}
@@ -0,0 +1,82 @@
+package com.nabinbhandari.android.permissions;
+
+import android.content.Context;
+
+/**
+ * A precomputed permission request, usually generated from a {@link RequestSpec} by the
+ * {@code permissions-compiler} annotation processor. The permissions are deduplicated and
+ * interned once, so that checking a descriptor via
+ * {@link Permissions#check(android.content.Context, PermissionDescriptor, PermissionHandler)}
+ * allocates nothing when the permissions are already granted. Since a descriptor shares a single
+ * options instance, concurrent checks of the same descriptor are served by a single prompt.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class PermissionDescriptor {
+
+    final String[] permissions;
+    final PermissionSet permissionSet;
+    final Permissions.Options options;
+    private final String rationaleName;
+    // The resolved resource id of the rationale, 0 for none, or -1 if not resolved yet.
+    private volatile int rationaleId;
+
+    /**
+     * @param permissions the permissions to request, without duplicates.
+     * @param rationaleId the string resource id of the rationale, or 0 for none.
+     * @param options     the options for handling permissions, or null for the defaults.
+     */
+    public PermissionDescriptor(String[] permissions, int rationaleId,
+                                Permissions.Options options) {
+        this(permissions, null, rationaleId, options);
+    }
+
+    /**
+     * @param permissions   the permissions to request, without duplicates.
+     * @param rationaleName the name of the string resource of the rationale, e.g.
+     *                      "camera_rationale", or null for none. It is resolved when the
+     *                      rationale is first needed, since resource ids are not constants in
+     *                      library modules and with recent versions of the android gradle
+     *                      plugin.
+     * @param options       the options for handling permissions, or null for the defaults.
+     */
+    public PermissionDescriptor(String[] permissions, String rationaleName,
+                                Permissions.Options options) {
+        this(permissions, rationaleName, rationaleName == null ? 0 : -1, options);
+    }
+
+    private PermissionDescriptor(String[] permissions, String rationaleName, int rationaleId,
+                                 Permissions.Options options) {
+        this.permissions = permissions;
+        this.permissionSet = PermissionSet.of(permissions);
+        this.rationaleName = rationaleName;
+        this.rationaleId = rationaleId;
+        this.options = options;
+    }
+
+    /**
+     * @return the rationale, or null if there is none or its resource doesn't exist.
+     */
+    String getRationale(Context context) {
+        int id = rationaleId;
+        if (id < 0) {
+            id = context.getResources().getIdentifier(rationaleName, "string",
+                    context.getPackageName());
+            if (id == 0) Permissions.log("No string resource named " + rationaleName + ".");
+            rationaleId = id;
+        }
+        if (id == 0) return null;
+        try {
+            return context.getString(id);
+        } catch (Exception ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the permissions of the descriptor.
+     */
+    public PermissionSet getPermissions() {
+        return permissionSet;
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.nabinbhandari.android.permissions;
+
+import android.content.Context;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A handle to a pending permission request, which resolves to a {@link PermissionResult}.
+ * <p>
+ * Note: The blocking {@link #get()} methods must not be called from the main thread, since the
+ * request itself is resolved on the main thread.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class PermissionFuture implements Future<PermissionResult> {
+
+    private Executor executor;
+    private PermissionCallback callback;
+    private PermissionResult result;
+    private boolean cancelled;
+    private Runnable deadline;
+    volatile int requestId;
+
+    PermissionFuture(Executor executor, PermissionCallback callback) {
+        this.executor = executor;
+        this.callback = callback;
+    }
+
+    /**
+     * @return the id of the request. It can be saved along with the state of the caller, to
+     * re-attach to the request via {@link Permissions#resume(int, Executor, PermissionCallback)}
+     * if the caller gets recreated or the process gets restarted while the request is in
+     * progress.
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Cancels the request. The callback will not be called after the request has been cancelled.
+     * If no other request is waiting for the same prompt, the prompt is closed.
+     *
+     * @param mayInterruptIfRunning ignored.
+     * @return false if the request had already been resolved or cancelled.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (isDone()) return false;
+            cancelled = true;
+            callback = null;
+            notifyAll();
+        }
+        clearDeadline();
+        RequestBroker.cancel(requestId);
+        SharedBroker.cancel(requestId);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return cancelled || result != null;
+    }
+
+    @Override
+    public synchronized PermissionResult get() throws InterruptedException {
+        while (!isDone()) {
+            wait();
+        }
+        if (cancelled) throw new CancellationException();
+        return result;
+    }
+
+    @Override
+    public synchronized PermissionResult get(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isDone()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (cancelled) throw new CancellationException();
+        return result;
+    }
+
+    /**
+     * Asks whether the default action for blocked permissions should be taken.
+     *
+     * @return true if the user should be sent to settings.
+     */
+    boolean onBlocked(Context context, PermissionSet blocked) {
+        PermissionCallback callback;
+        synchronized (this) {
+            callback = this.callback;
+        }
+        return !(callback instanceof HandlerAdapter)
+                || ((HandlerAdapter) callback).onBlocked(context, blocked);
+    }
+
+    /**
+     * Releases the callback, e.g. because it captures an activity which is being recreated. The
+     * result is kept until a callback is attached again.
+     */
+    synchronized void detach() {
+        callback = null;
+    }
+
+    /**
+     * Sets the callback of a restored or parked request, calling it right away if the request
+     * has already been resolved.
+     */
+    void attach(Executor executor, final PermissionCallback callback) {
+        final PermissionResult result;
+        synchronized (this) {
+            if (cancelled) return;
+            this.executor = executor;
+            if (this.result == null) {
+                this.callback = callback;
+                return;
+            }
+            result = this.result;
+        }
+        if (callback != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(result);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sets the runnable which expires the request once its deadline has passed, so that it can
+     * be unscheduled when the request resolves earlier.
+     */
+    synchronized void setDeadline(Runnable deadline) {
+        this.deadline = deadline;
+    }
+
+    private void clearDeadline() {
+        Runnable deadline;
+        synchronized (this) {
+            deadline = this.deadline;
+            this.deadline = null;
+        }
+        if (deadline != null) {
+            RequestBroker.unschedule(deadline);
+        }
+    }
+
+    void complete(final PermissionResult result) {
+        final PermissionCallback callback;
+        final Executor executor;
+        synchronized (this) {
+            if (isDone()) return;
+            this.result = result;
+            executor = this.executor;
+            callback = this.callback;
+            this.callback = null;
+            notifyAll();
+        }
+        clearDeadline();
+        Permissions.phase(requestId, PermissionMetricsListener.PHASE_DISPATCHED);
+        if (callback != null) {
+            final int requestId = this.requestId;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    FrameMonitor.onDispatch(requestId);
+                    callback.onResult(result);
+                }
+            });
+        }
+    }
+
+}
@@ -1,6 +1,8 @@
 package com.nabinbhandari.android.permissions;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 
 import java.util.ArrayList;
@@ -27,7 +29,7 @@ public abstract class PermissionHandler {
      * @param deniedPermissions The list of permissions which have been denied.
      */
     public void onDenied(Context context, ArrayList<String> deniedPermissions) {
-        if (Permissions.loggingEnabled) {
+        if (Permissions.isLogging()) {
             StringBuilder builder = new StringBuilder();
             builder.append("Denied:");
             for (String permission : deniedPermissions) {
@@ -36,7 +38,30 @@ public abstract class PermissionHandler {
             }
             Permissions.log(builder.toString());
         }
-        Toast.makeText(context, "Permission Denied.", Toast.LENGTH_SHORT).show();
+        final Context appContext = context;
+        Runnable toast = new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(appContext, "Permission Denied.", Toast.LENGTH_SHORT).show();
+            }
+        };
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            toast.run();
+        } else {
+            // The handler may be called on a background thread, see Options#setDispatchPolicy.
+            new Handler(Looper.getMainLooper()).post(toast);
+        }
+    }
+
+    /**
+     * This method will be called if some of the requested permissions have been denied. By
+     * default, it delegates to {@link #onDenied(Context, ArrayList)}.
+     *
+     * @param context           The application context.
+     * @param deniedPermissions The set of permissions which have been denied.
+     */
+    public void onDenied(Context context, PermissionSet deniedPermissions) {
+        onDenied(context, deniedPermissions.toList());
     }
 
     /**
@@ -52,7 +77,7 @@ public abstract class PermissionHandler {
      */
     @SuppressWarnings("UnusedParameters")
     public boolean onBlocked(Context context, ArrayList<String> blockedList) {
-        if (Permissions.loggingEnabled) {
+        if (Permissions.isLogging()) {
             StringBuilder builder = new StringBuilder();
             builder.append("Set not to ask again:");
             for (String permission : blockedList) {
@@ -64,6 +89,19 @@ public abstract class PermissionHandler {
         return false;
     }
 
+    /**
+     * This method will be called if some permissions have previously been set not to ask again.
+     * By default, it delegates to {@link #onBlocked(Context, ArrayList)}.
+     *
+     * @param context    the application context.
+     * @param blockedSet the set of permissions which have been set not to ask again.
+     * @return The overrider of this method should return true if no further action is needed,
+     * and should return false if the default action is to be taken, i.e. send user to settings.
+     */
+    public boolean onBlocked(Context context, PermissionSet blockedSet) {
+        return onBlocked(context, blockedSet.toList());
+    }
+
     /**
      * This method will be called if some permissions have just been set not to ask again.
      *
@@ -73,7 +111,7 @@ public abstract class PermissionHandler {
      */
     public void onJustBlocked(Context context, ArrayList<String> justBlockedList,
                               ArrayList<String> deniedPermissions) {
-        if (Permissions.loggingEnabled) {
+        if (Permissions.isLogging()) {
             StringBuilder builder = new StringBuilder();
             builder.append("Just set not to ask again:");
             for (String permission : justBlockedList) {
@@ -82,6 +120,32 @@ public abstract class PermissionHandler {
             }
             Permissions.log(builder.toString());
         }
+        onDenied(context, PermissionSet.of(deniedPermissions));
+    }
+
+    /**
+     * This method will be called if some permissions have just been set not to ask again. By
+     * default, it delegates to {@link #onJustBlocked(Context, ArrayList, ArrayList)}.
+     *
+     * @param context           The application context.
+     * @param justBlockedSet    The set of permissions which have just been set not to ask again.
+     * @param deniedPermissions The set of currently unavailable permissions.
+     */
+    public void onJustBlocked(Context context, PermissionSet justBlockedSet,
+                              PermissionSet deniedPermissions) {
+        onJustBlocked(context, justBlockedSet.toList(), deniedPermissions.toList());
+    }
+
+    /**
+     * This method will be called if the deadline of the request has passed before the user
+     * answered (see {@link Permissions.Options#setTimeout(long)}). By default, it delegates to
+     * {@link #onDenied(Context, PermissionSet)}.
+     *
+     * @param context           The application context.
+     * @param deniedPermissions The set of permissions which were not granted at the deadline.
+     */
+    public void onTimedOut(Context context, PermissionSet deniedPermissions) {
+        Permissions.log("Timed out.");
         onDenied(context, deniedPermissions);
     }
 
@@ -0,0 +1,108 @@
+package com.nabinbhandari.android.permissions;
+
+/**
+ * Listener for the phase timestamps and log messages of the permission request flow, set via
+ * {@link Permissions#setMetricsListener(PermissionMetricsListener)}. When no listener is set, no
+ * timestamps are taken and no log messages are built, apart from the logcat output which can be
+ * disabled via {@link Permissions#disableLogging()}.
+ * <p>
+ * Phases are reported for the requests which need a prompt, i.e. which are not granted already.
+ * The methods are called on the thread where the phase happens, mostly the main thread, so they
+ * should return quickly.
+ */
+public interface PermissionMetricsListener {
+
+    /**
+     * The permissions were checked and found to need a prompt.
+     */
+    int PHASE_CHECK = 0;
+
+    /**
+     * The activity or fragment hosting the request flow has been created.
+     */
+    int PHASE_HOST_CREATED = 1;
+
+    /**
+     * The rationale has been shown.
+     */
+    int PHASE_RATIONALE_SHOWN = 2;
+
+    /**
+     * The user has answered the rationale.
+     */
+    int PHASE_RATIONALE_ANSWERED = 3;
+
+    /**
+     * The system permission request has been issued.
+     */
+    int PHASE_REQUEST_ISSUED = 4;
+
+    /**
+     * The result of the system permission request has been received.
+     */
+    int PHASE_RESULT_RECEIVED = 5;
+
+    /**
+     * The user has been sent to the settings screen.
+     */
+    int PHASE_SETTINGS_OPENED = 6;
+
+    /**
+     * The user has returned from the settings screen.
+     */
+    int PHASE_SETTINGS_RETURNED = 7;
+
+    /**
+     * The result is being dispatched to the handler/callback.
+     */
+    int PHASE_DISPATCHED = 8;
+
+    /**
+     * The prompt has been held back until the startup of the app is over, see
+     * {@link Permissions.Options#PRIORITY_DEFERRABLE}. The time until {@link #PHASE_RELEASED} is
+     * the prompt work kept off the startup of the app.
+     */
+    int PHASE_DEFERRED = 9;
+
+    /**
+     * The startup of the app is over, and the deferred prompt may be shown.
+     */
+    int PHASE_RELEASED = 10;
+
+    /**
+     * Called when a request reaches a phase of the flow.
+     *
+     * @param requestId      the id of the request.
+     * @param phase          one of the PHASE_ constants.
+     * @param timestampNanos the time of the phase, as per {@link System#nanoTime()}.
+     */
+    void onPhase(int requestId, int phase, long timestampNanos);
+
+    /**
+     * Called for each log message of the library.
+     *
+     * @param message the log message.
+     */
+    void onLog(String message);
+
+    /**
+     * Optional extension of the listener: if the listener set via
+     * {@link Permissions#setMetricsListener(PermissionMetricsListener)} also implements this
+     * interface, the frames dropped right after each dispatch are counted and reported.
+     *
+     * @see Permissions.Options#setDispatchPolicy(int)
+     */
+    interface FrameListener {
+
+        /**
+         * Called on the main thread a few frames after the result of a request has been
+         * dispatched.
+         *
+         * @param requestId     the id of the request.
+         * @param droppedFrames the number of frames dropped after the first frame drawn since
+         *                      the dispatch.
+         */
+        void onDispatchFrames(int requestId, int droppedFrames);
+    }
+
+}
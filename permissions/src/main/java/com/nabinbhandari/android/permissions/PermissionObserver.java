@@ -0,0 +1,18 @@
+package com.nabinbhandari.android.permissions;
+
+/**
+ * Observer of permission state changes, such as a permission being revoked from the system
+ * settings. Register via {@link Permissions#observe(android.content.Context, String[],
+ * PermissionObserver)}.
+ */
+public interface PermissionObserver {
+
+    /**
+     * Called on the main thread when some of the observed permissions have changed their state.
+     *
+     * @param granted the observed permissions which have been granted since the last event.
+     * @param revoked the observed permissions which have been revoked since the last event.
+     */
+    void onPermissionsChanged(PermissionSet granted, PermissionSet revoked);
+
+}
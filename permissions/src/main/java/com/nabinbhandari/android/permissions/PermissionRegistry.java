@@ -0,0 +1,73 @@
+package com.nabinbhandari.android.permissions;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns permission strings and maps each of them to a small integer id, which is used as the
+ * bit index of the permission in a {@link PermissionSet}.
+ * <p>
+ * The first {@link #WORD_BITS} permissions fit in a single word, which covers the permissions
+ * of almost every app. There is no upper limit though: permissions beyond that (e.g. custom
+ * permissions of other apps) are stored in further words.
+ */
+final class PermissionRegistry {
+
+    /**
+     * The number of permissions whose bits fit in the first word of a {@link PermissionSet}.
+     */
+    static final int WORD_BITS = 64;
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // Replaced by a larger copy when full, so that it can be read without locking.
+    private static volatile String[] names = new String[WORD_BITS];
+    private static int count;
+
+    private PermissionRegistry() {
+    }
+
+    /**
+     * Returns the id of the given permission, interning it first if required.
+     *
+     * @param permission the permission string.
+     * @return the id of the permission.
+     */
+    static int idOf(String permission) {
+        Integer id = ids.get(permission);
+        if (id != null) return id;
+        synchronized (PermissionRegistry.class) {
+            id = ids.get(permission);
+            if (id != null) return id;
+            String[] names = PermissionRegistry.names;
+            if (count == names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[count] = permission;
+            // Published before the id, so that the name of every known id can be read.
+            PermissionRegistry.names = names;
+            ids.put(permission, count);
+            return count++;
+        }
+    }
+
+    /**
+     * Returns the id of the given permission without interning it.
+     *
+     * @param permission the permission string.
+     * @return the id of the permission, or -1 if the permission has not been interned.
+     */
+    static int find(String permission) {
+        Integer id = ids.get(permission);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id the id of an interned permission.
+     * @return the permission string for the given id.
+     */
+    static String nameOf(int id) {
+        return names[id];
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.nabinbhandari.android.permissions;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes a permission request: the permissions, the rationale and the options. It is handed
+ * over to {@link PermissionsActivity} or {@link PermissionsFragment} as a {@link Parcelable},
+ * which is much cheaper to marshal than the serialized {@link Permissions.Options} and
+ * permission list.
+ * <p>
+ * A request can consist of ordered stages, for permissions which can only be requested after
+ * others have been granted (e.g. background location after fine location). The stages are run
+ * one after the other within a single prompt, and a single aggregate result is reported. Use the
+ * {@link Builder} to create such requests.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class PermissionRequest implements Parcelable {
+
+    final int id;
+    final PermissionSet permissions;
+    final PermissionSet[] stages;
+    final String[] rationales;
+    final Permissions.Options options;
+    final boolean settingsOnly;
+
+    PermissionRequest(int id, PermissionSet permissions, String rationale,
+                      Permissions.Options options, boolean settingsOnly) {
+        this(id, new PermissionSet[]{permissions}, new String[]{rationale}, options,
+                settingsOnly);
+    }
+
+    PermissionRequest(int id, PermissionSet[] stages, String[] rationales,
+                      Permissions.Options options, boolean settingsOnly) {
+        this.id = id;
+        this.stages = stages;
+        this.rationales = rationales;
+        this.options = options;
+        this.settingsOnly = settingsOnly;
+        PermissionSet.Builder all = new PermissionSet.Builder();
+        for (PermissionSet stage : stages) {
+            all.addAll(stage);
+        }
+        this.permissions = all.build();
+    }
+
+    private PermissionRequest(Parcel in) {
+        id = in.readInt();
+        int stageCount = in.readInt();
+        stages = new PermissionSet[stageCount];
+        rationales = new String[stageCount];
+        PermissionSet.Builder all = new PermissionSet.Builder();
+        for (int i = 0; i < stageCount; i++) {
+            stages[i] = PermissionSet.of(in.createStringArray());
+            rationales[i] = in.readString();
+            all.addAll(stages[i]);
+        }
+        permissions = all.build();
+        options = in.readInt() != 0 ? Permissions.Options.readFromParcel(in) : null;
+        settingsOnly = in.readInt() != 0;
+    }
+
+    /**
+     * Returns a copy of this request with the given id and the given settings-only flag.
+     */
+    PermissionRequest withId(int id, boolean settingsOnly) {
+        return new PermissionRequest(id, stages, rationales, options, settingsOnly);
+    }
+
+    /**
+     * @return the options of this request, never null.
+     */
+    Permissions.Options getOptions() {
+        return options == null ? new Permissions.Options() : options;
+    }
+
+    /**
+     * @return the id of this request.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return all of the requested permissions.
+     */
+    public PermissionSet getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * @return the rationale to be shown for the first stage, or null.
+     */
+    public String getRationale() {
+        return rationales[0];
+    }
+
+    /**
+     * @return the number of stages of this request.
+     */
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(id);
+        dest.writeInt(stages.length);
+        for (int i = 0; i < stages.length; i++) {
+            dest.writeStringArray(stages[i].toArray());
+            dest.writeString(rationales[i]);
+        }
+        dest.writeInt(options != null ? 1 : 0);
+        if (options != null) options.writeToParcel(dest);
+        dest.writeInt(settingsOnly ? 1 : 0);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<PermissionRequest> CREATOR = new Creator<PermissionRequest>() {
+        @Override
+        public PermissionRequest createFromParcel(Parcel source) {
+            return new PermissionRequest(source);
+        }
+
+        @Override
+        public PermissionRequest[] newArray(int size) {
+            return new PermissionRequest[size];
+        }
+    };
+
+    /**
+     * Builder for (staged) permission requests.
+     */
+    public static class Builder {
+
+        private final List<PermissionSet> stages = new ArrayList<>();
+        private final List<String> rationales = new ArrayList<>();
+        private Permissions.Options options;
+
+        /**
+         * Adds a stage to the request. A stage is requested only after all of the permissions of
+         * the previous stages have been granted.
+         *
+         * @param permissions The permissions of the stage.
+         * @param rationale   Explanation to be shown to user if s/he has denied the permissions
+         *                    of this stage earlier, or null.
+         * @return same instance.
+         */
+        public Builder addStage(String[] permissions, String rationale) {
+            stages.add(PermissionSet.of(permissions));
+            rationales.add(rationale);
+            return this;
+        }
+
+        /**
+         * Sets the options for the request.
+         *
+         * @param options The options for handling permissions.
+         * @return same instance.
+         */
+        public Builder setOptions(Permissions.Options options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * @return the request.
+         * @throws IllegalStateException if no stage has been added.
+         */
+        public PermissionRequest build() {
+            if (stages.isEmpty()) {
+                throw new IllegalStateException("At least one stage is required.");
+            }
+            return new PermissionRequest(0, stages.toArray(new PermissionSet[0]),
+                    rationales.toArray(new String[0]), options, false);
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.nabinbhandari.android.permissions;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a type declaring permission requests via {@link RequestSpec}. With the
+ * {@code permissions-compiler} annotation processor, a class named after the type with the
+ * suffix {@code Descriptors} is generated, holding a {@link PermissionDescriptor} for each
+ * declared request, e.g.:
+ * <pre>
+ * &#64;PermissionRequests
+ * interface AppPermissions {
+ *     &#64;RequestSpec(value = Manifest.permission.CAMERA, rationale = "camera_rationale")
+ *     void camera();
+ * }
+ *
+ * Permissions.check(context, AppPermissionsDescriptors.CAMERA, handler);
+ * </pre>
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface PermissionRequests {
+}
@@ -0,0 +1,144 @@
+package com.nabinbhandari.android.permissions;
+
+/**
+ * The outcome of a permission request, classifying the requested permissions into granted,
+ * denied, blocked (set not to ask again) and just blocked.
+ * <p>
+ * This class has no dependency on the android framework, so the classification can be exercised
+ * on a plain JVM.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class PermissionResult {
+
+    final PermissionSet requested, denied, blocked, justBlocked;
+    final boolean timedOut;
+
+    PermissionResult(PermissionSet requested, PermissionSet denied, PermissionSet blocked,
+                     PermissionSet justBlocked) {
+        this(requested, denied, blocked, justBlocked, false);
+    }
+
+    PermissionResult(PermissionSet requested, PermissionSet denied, PermissionSet blocked,
+                     PermissionSet justBlocked, boolean timedOut) {
+        this.requested = requested;
+        this.denied = denied;
+        this.blocked = blocked;
+        this.justBlocked = justBlocked;
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * @return a result in which all of the requested permissions have been granted.
+     */
+    static PermissionResult granted(PermissionSet requested) {
+        return new PermissionResult(requested, PermissionSet.EMPTY, PermissionSet.EMPTY,
+                PermissionSet.EMPTY);
+    }
+
+    /**
+     * @return a result in which the given permissions have been denied, without being blocked.
+     */
+    static PermissionResult denied(PermissionSet requested, PermissionSet denied) {
+        return new PermissionResult(requested, denied, PermissionSet.EMPTY, PermissionSet.EMPTY);
+    }
+
+    /**
+     * @return a result for a request whose deadline has passed before the user answered.
+     */
+    static PermissionResult timedOut(PermissionSet requested, PermissionSet denied) {
+        return new PermissionResult(requested, denied, PermissionSet.EMPTY, PermissionSet.EMPTY,
+                true);
+    }
+
+    /**
+     * Classifies the result of a permission request.
+     *
+     * @param requested   the permissions which were requested.
+     * @param denied      the permissions which were not granted.
+     * @param rationale   the denied permissions for which a rationale should be shown, i.e. which
+     *                    can still be requested again.
+     * @param noRationale the permissions for which no rationale was to be shown before the
+     *                    request was made.
+     * @return the classified result.
+     */
+    static PermissionResult classify(PermissionSet requested, PermissionSet denied,
+                                     PermissionSet rationale, PermissionSet noRationale) {
+        PermissionSet blocked = denied.minus(rationale);
+        return new PermissionResult(requested, denied, blocked, blocked.minus(noRationale));
+    }
+
+    /**
+     * @return this result restricted to the given permissions, e.g. to those of one of the
+     * requests served by a prompt.
+     */
+    PermissionResult restrict(PermissionSet permissions) {
+        return new PermissionResult(permissions, denied.intersect(permissions),
+                blocked.intersect(permissions), justBlocked.intersect(permissions), timedOut);
+    }
+
+    /**
+     * @return true if all of the requested permissions have been granted.
+     */
+    public boolean isGranted() {
+        return denied.isEmpty();
+    }
+
+    /**
+     * @return true if the deadline of the request passed before the user answered, in which case
+     * the denied permissions are those which were not granted at that time.
+     * @see Permissions.Options#setTimeout(long)
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return the permissions which were requested.
+     */
+    public PermissionSet getRequested() {
+        return requested;
+    }
+
+    /**
+     * @return the requested permissions which have been granted.
+     */
+    public PermissionSet getGranted() {
+        return requested.minus(denied);
+    }
+
+    /**
+     * @return the requested permissions which are currently unavailable.
+     */
+    public PermissionSet getDenied() {
+        return denied;
+    }
+
+    /**
+     * @return the denied permissions which have been set not to ask again.
+     */
+    public PermissionSet getBlocked() {
+        return blocked;
+    }
+
+    /**
+     * @return the denied permissions which have just been set not to ask again.
+     */
+    public PermissionSet getJustBlocked() {
+        return justBlocked;
+    }
+
+    /**
+     * @return the denied permissions which can still be requested again.
+     */
+    public PermissionSet getJustDenied() {
+        return denied.minus(blocked);
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionResult{granted=" + getGranted() + ", denied=" + getDenied() +
+                ", blocked=" + getBlocked() + ", justBlocked=" + getJustBlocked() +
+                (timedOut ? ", timedOut" : "") + "}";
+    }
+
+}
@@ -0,0 +1,316 @@
+package com.nabinbhandari.android.permissions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of permissions, backed by a bitmask of interned permission ids. Set operations
+ * such as union, intersection and difference are single bitwise operations, as long as the ids
+ * fit in a single word (see {@link PermissionRegistry#WORD_BITS}); larger ids are kept in
+ * further words.
+ * <p>
+ * Iteration order is the order in which the permissions were first seen by the library.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class PermissionSet implements Iterable<String> {
+
+    /**
+     * The empty permission set.
+     */
+    public static final PermissionSet EMPTY = new PermissionSet(0L, null);
+
+    // The bits of the permissions with ids below WORD_BITS.
+    private final long mask;
+    // The bits of the permissions with larger ids, one word per WORD_BITS ids, or null if there
+    // are none. The last word is never 0.
+    private final long[] overflow;
+
+    private PermissionSet(long mask, long[] overflow) {
+        this.mask = mask;
+        this.overflow = overflow;
+    }
+
+    private static PermissionSet of(long mask, long[] overflow) {
+        overflow = trim(overflow);
+        return mask == 0L && overflow == null ? EMPTY : new PermissionSet(mask, overflow);
+    }
+
+    /**
+     * @return the given words without the trailing zero words, or null if all of them are 0.
+     */
+    private static long[] trim(long[] words) {
+        if (words == null) return null;
+        int length = words.length;
+        while (length > 0 && words[length - 1] == 0L) {
+            length--;
+        }
+        if (length == 0) return null;
+        return length == words.length ? words : Arrays.copyOf(words, length);
+    }
+
+    /**
+     * Creates a permission set containing the given permission, interning it if required.
+     */
+    static PermissionSet of(String permission) {
+        return new Builder().add(permission).build();
+    }
+
+    /**
+     * Creates a permission set containing the given permissions. Duplicates are ignored.
+     *
+     * @param permissions the permissions.
+     * @return the permission set.
+     */
+    public static PermissionSet of(String... permissions) {
+        Builder builder = new Builder();
+        for (String permission : permissions) {
+            builder.add(permission);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a permission set containing the given permissions. Duplicates are ignored.
+     *
+     * @param permissions the permissions.
+     * @return the permission set.
+     */
+    public static PermissionSet of(Collection<String> permissions) {
+        Builder builder = new Builder();
+        for (String permission : permissions) {
+            builder.add(permission);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param permission the permission to look for.
+     * @return true if this set contains the given permission.
+     */
+    public boolean contains(String permission) {
+        int id = PermissionRegistry.find(permission);
+        if (id < 0) return false;
+        if (id < PermissionRegistry.WORD_BITS) return (mask & (1L << id)) != 0L;
+        int word = id / PermissionRegistry.WORD_BITS - 1;
+        return overflow != null && word < overflow.length
+                && (overflow[word] & (1L << id)) != 0L;
+    }
+
+    /**
+     * @param other another permission set.
+     * @return true if this set contains all of the permissions of the other set.
+     */
+    public boolean containsAll(PermissionSet other) {
+        if ((other.mask & ~mask) != 0L) return false;
+        if (other.overflow == null) return true;
+        for (int i = 0; i < other.overflow.length; i++) {
+            if ((other.overflow[i] & ~word(overflow, i)) != 0L) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param other another permission set.
+     * @return true if this set and the other set have at least one permission in common.
+     */
+    public boolean intersects(PermissionSet other) {
+        if ((mask & other.mask) != 0L) return true;
+        if (overflow == null || other.overflow == null) return false;
+        for (int i = 0; i < Math.min(overflow.length, other.overflow.length); i++) {
+            if ((overflow[i] & other.overflow[i]) != 0L) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of permissions in this set.
+     */
+    public int size() {
+        int size = Long.bitCount(mask);
+        if (overflow != null) {
+            for (long word : overflow) {
+                size += Long.bitCount(word);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return true if this set contains no permissions.
+     */
+    public boolean isEmpty() {
+        return mask == 0L && overflow == null;
+    }
+
+    /**
+     * @param other another permission set.
+     * @return a set containing the permissions of both sets.
+     */
+    public PermissionSet union(PermissionSet other) {
+        if (overflow == null && other.overflow == null) return of(mask | other.mask, null);
+        long[] words = new long[Math.max(length(overflow), length(other.overflow))];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = word(overflow, i) | word(other.overflow, i);
+        }
+        return of(mask | other.mask, words);
+    }
+
+    /**
+     * @param other another permission set.
+     * @return a set containing the permissions present in both sets.
+     */
+    public PermissionSet intersect(PermissionSet other) {
+        if (overflow == null || other.overflow == null) return of(mask & other.mask, null);
+        long[] words = new long[Math.min(overflow.length, other.overflow.length)];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = overflow[i] & other.overflow[i];
+        }
+        return of(mask & other.mask, words);
+    }
+
+    /**
+     * @param other another permission set.
+     * @return a set containing the permissions of this set which are not in the other set.
+     */
+    public PermissionSet minus(PermissionSet other) {
+        if (overflow == null) return of(mask & ~other.mask, null);
+        long[] words = new long[overflow.length];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = overflow[i] & ~word(other.overflow, i);
+        }
+        return of(mask & ~other.mask, words);
+    }
+
+    private static int length(long[] words) {
+        return words == null ? 0 : words.length;
+    }
+
+    private static long word(long[] words, int index) {
+        return words != null && index < words.length ? words[index] : 0L;
+    }
+
+    /**
+     * @return a new list containing the permissions of this set.
+     */
+    public ArrayList<String> toList() {
+        ArrayList<String> list = new ArrayList<>(size());
+        for (String permission : this) {
+            list.add(permission);
+        }
+        return list;
+    }
+
+    /**
+     * @return a new array containing the permissions of this set.
+     */
+    public String[] toArray() {
+        String[] array = new String[size()];
+        int i = 0;
+        for (String permission : this) {
+            array[i++] = permission;
+        }
+        return array;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int word = -1;
+            private long remaining = mask;
+
+            @Override
+            public boolean hasNext() {
+                while (remaining == 0L && overflow != null && word + 1 < overflow.length) {
+                    remaining = overflow[++word];
+                }
+                return remaining != 0L;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int id = (word + 1) * PermissionRegistry.WORD_BITS
+                        + Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                return PermissionRegistry.nameOf(id);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PermissionSet)) return false;
+        PermissionSet other = (PermissionSet) o;
+        return mask == other.mask && Arrays.equals(overflow, other.overflow);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (mask ^ (mask >>> 32)) + Arrays.hashCode(overflow);
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+
+    /**
+     * Collects permissions into a set, without creating intermediate sets.
+     */
+    static final class Builder {
+
+        private long mask;
+        private long[] overflow;
+
+        Builder add(String permission) {
+            int id = PermissionRegistry.idOf(permission);
+            if (id < PermissionRegistry.WORD_BITS) {
+                mask |= 1L << id;
+                return this;
+            }
+            int word = id / PermissionRegistry.WORD_BITS - 1;
+            if (overflow == null) {
+                overflow = new long[word + 1];
+            } else if (word >= overflow.length) {
+                overflow = Arrays.copyOf(overflow, word + 1);
+            }
+            overflow[word] |= 1L << id;
+            return this;
+        }
+
+        Builder addAll(PermissionSet set) {
+            mask |= set.mask;
+            if (set.overflow != null) {
+                if (overflow == null) {
+                    overflow = set.overflow.clone();
+                } else {
+                    if (overflow.length < set.overflow.length) {
+                        overflow = Arrays.copyOf(overflow, set.overflow.length);
+                    }
+                    for (int i = 0; i < set.overflow.length; i++) {
+                        overflow[i] |= set.overflow[i];
+                    }
+                }
+            }
+            return this;
+        }
+
+        boolean isEmpty() {
+            return mask == 0L && overflow == null;
+        }
+
+        PermissionSet build() {
+            return of(mask, overflow == null ? null : overflow.clone());
+        }
+    }
+
+}
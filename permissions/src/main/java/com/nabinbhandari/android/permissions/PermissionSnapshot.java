@@ -0,0 +1,180 @@
+package com.nabinbhandari.android.permissions;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the states of all of the permissions declared in the manifest, taken
+ * via {@link Permissions#snapshot(Context)}. The state of each permission is stored in a single
+ * byte.
+ * <p>
+ * Permissions which are not granted are told apart using the rationale flag (only available when
+ * the snapshot is taken with an activity) and the outcome of earlier requests made through this
+ * library.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class PermissionSnapshot {
+
+    /**
+     * The permission has been granted.
+     */
+    public static final int STATE_GRANTED = 0;
+
+    /**
+     * The permission has been denied, but can be requested again.
+     */
+    public static final int STATE_DENIED = 1;
+
+    /**
+     * The permission has not been granted, and is not known to have been denied.
+     */
+    public static final int STATE_NOT_ASKED = 2;
+
+    /**
+     * The permission has been set not to ask again.
+     */
+    public static final int STATE_BLOCKED = 3;
+
+    private static volatile String[] declaredPermissions;
+
+    private final String[] permissions;
+    private final byte[] states;
+
+    private PermissionSnapshot(String[] permissions, byte[] states) {
+        this.permissions = permissions;
+        this.states = states;
+    }
+
+    /**
+     * Takes a snapshot of all of the declared permissions.
+     */
+    static PermissionSnapshot take(Context context) {
+        String[] permissions = getDeclaredPermissions(context);
+        byte[] states = new byte[permissions.length];
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            for (int i = 0; i < permissions.length; i++) {
+                states[i] = stateOf(context, permissions[i]);
+            }
+        }
+        return new PermissionSnapshot(permissions, states);
+    }
+
+    /**
+     * Takes a new snapshot, checking again only the permissions which were not granted. Granted
+     * runtime permissions are kept as they are, since the system restarts the app process when
+     * one of them is revoked. Special accesses are always checked again, bypassing the cache:
+     * they can be revoked from settings while the process keeps running.
+     *
+     * @param context Android context; an activity allows to tell denied permissions from blocked
+     *                ones more precisely.
+     * @return the new snapshot, or this one if nothing has changed.
+     */
+    public PermissionSnapshot refresh(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return this;
+        byte[] updated = null;
+        for (int i = 0; i < permissions.length; i++) {
+            if (states[i] == STATE_GRANTED) {
+                if (Permissions.getChecker(permissions[i]) == null) continue;
+                PermissionCache.evict(permissions[i]);
+            }
+            byte state = stateOf(context, permissions[i]);
+            if (state == states[i]) continue;
+            if (updated == null) updated = states.clone();
+            updated[i] = state;
+        }
+        return updated == null ? this : new PermissionSnapshot(permissions, updated);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static byte stateOf(Context context, String permission) {
+        if (PermissionCache.checkSelfPermission(context, permission)
+                == PackageManager.PERMISSION_GRANTED) {
+            return STATE_GRANTED;
+        }
+        // A special access can always be granted from its settings screen.
+        if (Permissions.getChecker(permission) != null) return STATE_DENIED;
+        int flags = DecisionStore.getFlags(context, permission);
+        if (context instanceof Activity) {
+            if (((Activity) context).shouldShowRequestPermissionRationale(permission)) {
+                return STATE_DENIED;
+            }
+        } else if ((flags & DecisionStore.FLAG_DENIED) != 0
+                && (flags & DecisionStore.FLAG_BLOCKED) == 0) {
+            return STATE_DENIED;
+        }
+        return (byte) ((flags & DecisionStore.FLAG_BLOCKED) != 0 ? STATE_BLOCKED : STATE_NOT_ASKED);
+    }
+
+    /**
+     * @return the permissions declared in the manifest, read from the package info only once.
+     */
+    private static String[] getDeclaredPermissions(Context context) {
+        String[] permissions = declaredPermissions;
+        if (permissions != null) return permissions;
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(
+                    context.getPackageName(), PackageManager.GET_PERMISSIONS);
+            permissions = info.requestedPermissions;
+        } catch (PackageManager.NameNotFoundException ignored) {
+        }
+        if (permissions == null) permissions = new String[0];
+        return declaredPermissions = permissions;
+    }
+
+    /**
+     * @return all of the declared permissions.
+     */
+    public List<String> getPermissions() {
+        return Collections.unmodifiableList(Arrays.asList(permissions));
+    }
+
+    /**
+     * @param state one of the {@code STATE_} constants.
+     * @return the permissions which are in the given state.
+     */
+    public List<String> getPermissions(int state) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < permissions.length; i++) {
+            if (states[i] == state) result.add(permissions[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @param permission the permission.
+     * @return the state of the permission, one of the {@code STATE_} constants, or -1 if the
+     * permission is not declared in the manifest.
+     */
+    public int getState(String permission) {
+        for (int i = 0; i < permissions.length; i++) {
+            if (permissions[i].equals(permission)) return states[i];
+        }
+        return -1;
+    }
+
+    /**
+     * @param permission the permission.
+     * @return true if the permission has been granted.
+     */
+    public boolean isGranted(String permission) {
+        return getState(permission) == STATE_GRANTED;
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionSnapshot{granted=" + getPermissions(STATE_GRANTED) +
+                ", denied=" + getPermissions(STATE_DENIED) +
+                ", notAsked=" + getPermissions(STATE_NOT_ASKED) +
+                ", blocked=" + getPermissions(STATE_BLOCKED) + "}";
+    }
+
+}
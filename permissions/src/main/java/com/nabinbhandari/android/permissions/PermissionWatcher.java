@@ -0,0 +1,95 @@
+package com.nabinbhandari.android.permissions;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps a single snapshot of the grant state of all observed permissions, and fans out only the
+ * changes to the subscribed {@link PermissionObserver}s. The snapshot is refreshed when the app
+ * returns to the foreground, when the user returns from settings and when a request completes.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+final class PermissionWatcher {
+
+    private static final class Subscription {
+        final PermissionObserver observer;
+        final PermissionSet permissions;
+
+        Subscription(PermissionObserver observer, PermissionSet permissions) {
+            this.observer = observer;
+            this.permissions = permissions;
+        }
+    }
+
+    private static final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private static PermissionSet observed = PermissionSet.EMPTY;
+    private static PermissionSet granted = PermissionSet.EMPTY;
+
+    private PermissionWatcher() {
+    }
+
+    static void subscribe(Context context, PermissionSet permissions,
+                          PermissionObserver observer) {
+        synchronized (PermissionWatcher.class) {
+            PermissionSet added = permissions.minus(observed);
+            granted = granted.union(grantedOf(context, added));
+            observed = observed.union(added);
+        }
+        subscriptions.add(new Subscription(observer, permissions));
+    }
+
+    static void unsubscribe(PermissionObserver observer) {
+        PermissionSet.Builder remaining = new PermissionSet.Builder();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.observer == observer) {
+                subscriptions.remove(subscription);
+            } else {
+                remaining.addAll(subscription.permissions);
+            }
+        }
+        synchronized (PermissionWatcher.class) {
+            observed = remaining.build();
+            granted = granted.intersect(observed);
+        }
+    }
+
+    /**
+     * Takes a new snapshot of the observed permissions and notifies the observers of the
+     * permissions which have changed.
+     */
+    static void refresh(Context context) {
+        if (subscriptions.isEmpty()) return;
+        PermissionSet changed, current;
+        synchronized (PermissionWatcher.class) {
+            current = grantedOf(context, observed);
+            changed = granted.union(current).minus(granted.intersect(current));
+            granted = current;
+        }
+        if (changed.isEmpty()) return;
+        Permissions.log("Observed permission(s) changed.");
+        for (Subscription subscription : subscriptions) {
+            PermissionSet own = changed.intersect(subscription.permissions);
+            if (!own.isEmpty()) {
+                subscription.observer.onPermissionsChanged(own.intersect(current),
+                        own.minus(current));
+            }
+        }
+    }
+
+    private static PermissionSet grantedOf(Context context, PermissionSet permissions) {
+        PermissionSet.Builder result = new PermissionSet.Builder();
+        for (String permission : permissions) {
+            if (PermissionCache.checkSelfPermission(context, permission)
+                    == PackageManager.PERMISSION_GRANTED) {
+                result.add(permission);
+            }
+        }
+        return result.build();
+    }
+
+}
@@ -1,16 +1,20 @@
 package com.nabinbhandari.android.permissions;
 
+import android.annotation.TargetApi;
+import android.app.Activity;
 import android.content.Context;
-import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Parcel;
 import android.util.Log;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * <pre>
@@ -23,7 +27,18 @@ import java.util.Set;
 @SuppressWarnings({"WeakerAccess", "unused"})
 public class Permissions {
 
-    static boolean loggingEnabled = true;
+    static volatile boolean loggingEnabled = true;
+    static volatile PermissionMetricsListener metricsListener;
+
+    static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private static volatile Executor backgroundExecutor;
+    private static final Map<String, SpecialAccessChecker> checkers =
+            new ConcurrentHashMap<>(SpecialAccess.defaults());
 
     /**
      * Disable logs.
@@ -32,8 +47,89 @@ public class Permissions {
         loggingEnabled = false;
     }
 
+    /**
+     * Sets the listener for phase timestamps and log messages of the request flow.
+     *
+     * @param listener the listener, or null to remove the current one.
+     */
+    public static void setMetricsListener(PermissionMetricsListener listener) {
+        metricsListener = listener;
+    }
+
+    /**
+     * @return true if log messages are consumed by anyone, i.e. worth building.
+     */
+    static boolean isLogging() {
+        return loggingEnabled || metricsListener != null;
+    }
+
     static void log(String message) {
         if (loggingEnabled) Log.d("Permissions", message);
+        PermissionMetricsListener listener = metricsListener;
+        if (listener != null) listener.onLog(message);
+    }
+
+    static void phase(int requestId, int phase) {
+        PermissionMetricsListener listener = metricsListener;
+        if (listener != null) listener.onPhase(requestId, phase, System.nanoTime());
+    }
+
+    /**
+     * Sets the checker for a permission which is granted from a settings screen rather than via
+     * the runtime permission dialog. Checkers for {@code SYSTEM_ALERT_WINDOW},
+     * {@code WRITE_SETTINGS}, {@code MANAGE_EXTERNAL_STORAGE}, {@code SCHEDULE_EXACT_ALARM},
+     * {@code PACKAGE_USAGE_STATS} (usage access) and {@code BIND_NOTIFICATION_LISTENER_SERVICE}
+     * (notification access) are built in.
+     *
+     * @param permission the permission.
+     * @param checker    the checker, or null to treat the permission as a runtime permission.
+     */
+    public static void registerChecker(String permission, SpecialAccessChecker checker) {
+        if (checker == null) {
+            checkers.remove(permission);
+        } else {
+            checkers.put(permission, checker);
+        }
+        PermissionCache.invalidate();
+    }
+
+    /**
+     * @return the checker for the given permission, or null if it is a runtime permission.
+     */
+    static SpecialAccessChecker getChecker(String permission) {
+        return checkers.get(permission);
+    }
+
+    /**
+     * Returns the number of handlers/callbacks currently retained by pending requests, for
+     * diagnostics. Requests made from an activity are dropped when the activity is destroyed.
+     *
+     * @return the number of retained handlers.
+     */
+    public static int getRetainedHandlerCount() {
+        return RequestBroker.getRetainedCount();
+    }
+
+    /**
+     * Returns the number of pending requests which have been dropped because the activity they
+     * were made from has been finished, for diagnostics. The requests of an activity which is
+     * only being recreated are kept, see {@link #resume(Context, int, PermissionHandler)}.
+     *
+     * @return the number of dropped handlers.
+     */
+    public static int getDroppedHandlerCount() {
+        return RequestBroker.getDroppedCount();
+    }
+
+    /**
+     * Returns the number of requests whose prompt has been held back until the startup of the
+     * app was over, for diagnostics.
+     *
+     * @return the number of deferred requests.
+     * @see Options#setPriority(int)
+     */
+    public static int getDeferredRequestCount() {
+        return RequestBroker.getDeferredCount();
     }
 
     /**
@@ -90,37 +186,328 @@ public class Permissions {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
             handler.onGranted();
             log("Android version < 23");
+        } else if (allGranted(context, permissions)) {
+            handler.onGranted();
+            log("Permission(s) already granted.");
         } else {
-            Set<String> permissionsSet = new LinkedHashSet<>();
-            Collections.addAll(permissionsSet, permissions);
-            boolean allPermissionProvided = true;
-            for (String aPermission : permissionsSet) {
-                if (context.checkSelfPermission(aPermission) != PackageManager.PERMISSION_GRANTED) {
-                    allPermissionProvided = false;
-                    break;
-                }
+            request(context, permissions, rationale, options, dispatchExecutor(options),
+                    new HandlerAdapter(context, handler));
+        }
+    }
+
+    /**
+     * Check/Request permissions and deliver the result to the given callback. Unlike
+     * {@link #check(Context, String[], String, Options, PermissionHandler)}, this method can be
+     * called from any thread, and the callback is invoked on the given executor, so that heavy
+     * work started from the callback does not block the main thread.
+     *
+     * @param context     Android context.
+     * @param permissions The array of one or more permission(s) to request.
+     * @param rationale   Explanation to be shown to user if s/he has denied permission earlier.
+     *                    If this parameter is null, permissions will be requested without showing
+     *                    the rationale dialog.
+     * @param options     The options for handling permissions.
+     * @param executor    The executor on which the callback is to be invoked.
+     * @param callback    The callback to receive the result, may be null.
+     * @return a cancellable handle which resolves to the result of the request.
+     */
+    public static PermissionFuture request(Context context, String[] permissions,
+                                           String rationale, Options options, Executor executor,
+                                           PermissionCallback callback) {
+        return request(context, new PermissionRequest(0, PermissionSet.of(permissions),
+                rationale, options, false), executor, callback);
+    }
+
+    /**
+     * Check/Request the permissions of a precomputed descriptor and call the callback methods of
+     * permission handler accordingly. No allocation is made if the permissions are already
+     * granted.
+     *
+     * @param context    Android context.
+     * @param descriptor The descriptor, usually generated from a {@link RequestSpec}.
+     * @param handler    The permission handler object for handling callbacks of various user
+     *                   actions such as permission granted, permission denied, etc.
+     */
+    public static void check(Context context, PermissionDescriptor descriptor,
+                             PermissionHandler handler) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            handler.onGranted();
+            log("Android version < 23");
+        } else if (allGranted(context, descriptor.permissions)) {
+            handler.onGranted();
+            log("Permission(s) already granted.");
+        } else {
+            request(context, new PermissionRequest(0, descriptor.permissionSet,
+                            descriptor.getRationale(context), descriptor.options, false),
+                    dispatchExecutor(descriptor.options), new HandlerAdapter(context, handler));
+        }
+    }
+
+    /**
+     * Check/Request permissions and call the callback methods of permission handler accordingly.
+     * The stages of the request are requested one after the other, each one only after all of
+     * the permissions of the previous stages have been granted, and the handler is called once
+     * for the whole request.
+     *
+     * @param context Android context.
+     * @param request The request, created with {@link PermissionRequest.Builder}.
+     * @param handler The permission handler object for handling callbacks of various user
+     *                actions such as permission granted, permission denied, etc.
+     */
+    public static void check(Context context, PermissionRequest request,
+                             PermissionHandler handler) {
+        request(context, request, handler);
+    }
+
+    /**
+     * Same as {@link #check(Context, PermissionRequest, PermissionHandler)}, but returns the id
+     * of the request.
+     *
+     * @param context Android context.
+     * @param request The request, created with {@link PermissionRequest.Builder}.
+     * @param handler The permission handler object for handling callbacks of various user
+     *                actions such as permission granted, permission denied, etc.
+     * @return the id of the request, which can be saved to re-attach a handler via
+     * {@link #resume(Context, int, PermissionHandler)} if the caller is recreated while the
+     * request is in progress, or 0 if the permissions have been granted already.
+     */
+    public static int request(Context context, PermissionRequest request,
+                              PermissionHandler handler) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            handler.onGranted();
+            log("Android version < 23");
+        } else if (allGranted(context, request.permissions)) {
+            handler.onGranted();
+            log("Permission(s) already granted.");
+        } else {
+            return request(context, request, dispatchExecutor(request.options),
+                    new HandlerAdapter(context, handler)).getRequestId();
+        }
+        return 0;
+    }
+
+    /**
+     * Check/Request permissions and deliver the result to the given callback. See
+     * {@link #check(Context, PermissionRequest, PermissionHandler)} for staged requests and
+     * {@link #request(Context, String[], String, Options, Executor, PermissionCallback)} for the
+     * threading.
+     *
+     * @param context  Android context.
+     * @param request  The request, created with {@link PermissionRequest.Builder}.
+     * @param executor The executor on which the callback is to be invoked.
+     * @param callback The callback to receive the result, may be null.
+     * @return a cancellable handle which resolves to the result of the request.
+     */
+    public static PermissionFuture request(Context context, PermissionRequest request,
+                                           Executor executor, PermissionCallback callback) {
+        PermissionFuture future = new PermissionFuture(executor, callback);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M
+                || allGranted(context, request.permissions)) {
+            future.complete(PermissionResult.granted(request.permissions));
+        } else if (request.options != null && request.options.useSharedBroker) {
+            SharedBroker.send(context, request, future);
+        } else {
+            submit(context, request, future);
+        }
+        return future;
+    }
+
+    /**
+     * Submits a request which is not known to be granted to the broker of this process.
+     */
+    static void submit(Context context, PermissionRequest request, PermissionFuture future) {
+        if (request.options != null && request.options.resolveKnownBlocked
+                && request.getStageCount() == 1 && context instanceof Activity) {
+            resolveKnownBlocked((Activity) context, request, future);
+        } else {
+            RequestBroker.submit(context, request, future);
+        }
+    }
+
+    /**
+     * If all of the denied permissions are known to have been set not to ask again, reports them
+     * as blocked without requesting them, and sends the user to settings directly if needed.
+     * Otherwise, submits a normal request.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private static void resolveKnownBlocked(Activity activity, PermissionRequest request,
+                                            PermissionFuture future) {
+        PermissionSet permissions = request.permissions;
+        PermissionSet.Builder denied = new PermissionSet.Builder();
+        boolean allBlocked = true;
+        for (String permission : permissions) {
+            if (PermissionCache.checkSelfPermission(activity, permission)
+                    == PackageManager.PERMISSION_GRANTED) {
+                continue;
+            }
+            denied.add(permission);
+            if (!DecisionStore.isBlocked(activity, permission)) {
+                allBlocked = false;
+            } else if (activity.shouldShowRequestPermissionRationale(permission)) {
+                // The store is out of date, e.g. the permission has been reset from settings.
+                DecisionStore.onNotBlocked(activity, permission);
+                allBlocked = false;
             }
+        }
+        if (!allBlocked) {
+            RequestBroker.submit(activity, request, future);
+            return;
+        }
+        log("Known to be blocked, not requesting.");
+        PermissionSet blocked = denied.build();
+        if (!future.onBlocked(activity.getApplicationContext(), blocked)) {
+            future.complete(PermissionResult.classify(permissions, blocked,
+                    PermissionSet.EMPTY, blocked));
+        } else if (request.getOptions().sendBlockedToSettings) {
+            RequestBroker.submit(activity, new PermissionRequest(0, permissions, null,
+                    request.options, true), future);
+        } else {
+            future.complete(PermissionResult.classify(permissions, blocked,
+                    PermissionSet.EMPTY, blocked));
+        }
+    }
+
+    /**
+     * Re-attaches a callback to a request which was in progress when the activity it was made
+     * from got recreated (e.g. for a configuration change), or when the process was killed (e.g.
+     * while the user was in the settings screen). The request goes on, or is resumed where it was
+     * when the app is restored, and its result is kept until a callback is re-attached.
+     *
+     * @param requestId The id of the request, as returned by
+     *                  {@link PermissionFuture#getRequestId()} or by
+     *                  {@link #request(Context, PermissionRequest, PermissionHandler)}, and
+     *                  saved by the caller.
+     * @param executor  The executor on which the callback is to be invoked.
+     * @param callback  The callback to receive the result.
+     * @return the handle of the request, or null if there is no such request to be resumed.
+     */
+    public static PermissionFuture resume(int requestId, Executor executor,
+                                          PermissionCallback callback) {
+        return RequestBroker.reattach(null, requestId, executor, callback);
+    }
+
+    /**
+     * Re-attaches a permission handler to a request which was in progress when the caller got
+     * recreated or the process was killed. See
+     * {@link #resume(int, Executor, PermissionCallback)}.
+     *
+     * @param context   Android context.
+     * @param requestId The id of the request, as returned by
+     *                  {@link #request(Context, PermissionRequest, PermissionHandler)} and saved
+     *                  by the caller.
+     * @param handler   The permission handler object for handling callbacks of various user
+     *                  actions such as permission granted, permission denied, etc.
+     * @return false if there is no such request to be resumed.
+     */
+    public static boolean resume(Context context, int requestId, PermissionHandler handler) {
+        return RequestBroker.reattach(context, requestId, DIRECT_EXECUTOR,
+                new HandlerAdapter(context, handler)) != null;
+    }
+
+    /**
+     * Takes a snapshot of the states of all of the permissions declared in the manifest, in a
+     * single pass. Use {@link PermissionSnapshot#refresh(Context)} to update it, e.g. when the
+     * app returns to the foreground.
+     *
+     * @param context Android context; an activity allows to tell denied permissions from blocked
+     *                ones more precisely.
+     * @return the snapshot.
+     */
+    public static PermissionSnapshot snapshot(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            ForegroundTracker.register(context);
+        }
+        return PermissionSnapshot.take(context);
+    }
+
+    /**
+     * Registers an observer to be notified when any of the given permissions changes its state,
+     * e.g. when the user revokes it from the system settings. Changes are detected when the app
+     * returns to the foreground, when the user returns from settings and when a permission
+     * request completes, so there is no need to poll {@link #check(Context, String, String,
+     * PermissionHandler)}.
+     *
+     * @param context     Android context.
+     * @param permissions The permissions to observe.
+     * @param observer    The observer to be notified.
+     */
+    public static void observe(Context context, String[] permissions,
+                               PermissionObserver observer) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return;
+        ForegroundTracker.register(context);
+        PermissionWatcher.subscribe(context, PermissionSet.of(permissions), observer);
+    }
 
-            if (allPermissionProvided) {
-                handler.onGranted();
-                log("Permission(s) " + (PermissionsActivity.permissionHandler == null ?
-                        "already granted." : "just granted from settings."));
-                PermissionsActivity.permissionHandler = null;
-
-            } else {
-                PermissionsActivity.permissionHandler = handler;
-                ArrayList<String> permissionsList = new ArrayList<>(permissionsSet);
-
-                Intent intent = new Intent(context, PermissionsActivity.class)
-                        .putExtra(PermissionsActivity.EXTRA_PERMISSIONS, permissionsList)
-                        .putExtra(PermissionsActivity.EXTRA_RATIONALE, rationale)
-                        .putExtra(PermissionsActivity.EXTRA_OPTIONS, options);
-                if (options != null && options.createNewTask) {
-                    intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+    /**
+     * Unregisters an observer registered via {@link #observe(Context, String[],
+     * PermissionObserver)}.
+     *
+     * @param observer The observer to be removed.
+     */
+    public static void removeObserver(PermissionObserver observer) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return;
+        PermissionWatcher.unsubscribe(observer);
+    }
+
+    /**
+     * @return the executor for the handler callbacks, as per the dispatch policy of the options.
+     */
+    private static Executor dispatchExecutor(Options options) {
+        int policy = options == null ? Options.DISPATCH_IMMEDIATE : options.dispatchPolicy;
+        if (policy == Options.DISPATCH_NEXT_FRAME) {
+            return FrameDispatcher.INSTANCE;
+        } else if (policy == Options.DISPATCH_BACKGROUND) {
+            return backgroundExecutor();
+        }
+        return DIRECT_EXECUTOR;
+    }
+
+    /**
+     * @return the background thread of the library, created on first use. It runs the callbacks
+     * of {@link Options#DISPATCH_BACKGROUND} and the disk reads of the library.
+     */
+    static Executor backgroundExecutor() {
+        if (backgroundExecutor == null) {
+            synchronized (Permissions.class) {
+                if (backgroundExecutor == null) {
+                    ThreadFactory factory = new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "Permissions-background");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    };
+                    backgroundExecutor = Executors.newSingleThreadExecutor(factory);
                 }
-                context.startActivity(intent);
             }
         }
+        return backgroundExecutor;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static boolean allGranted(Context context, String[] permissions) {
+        ForegroundTracker.register(context);
+        // Duplicates are harmless here, so no set is built for checking.
+        for (String permission : permissions) {
+            if (PermissionCache.checkSelfPermission(context, permission)
+                    != PackageManager.PERMISSION_GRANTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static boolean allGranted(Context context, PermissionSet permissions) {
+        ForegroundTracker.register(context);
+        for (String permission : permissions) {
+            if (PermissionCache.checkSelfPermission(context, permission)
+                    != PackageManager.PERMISSION_GRANTED) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -150,6 +537,36 @@ public class Permissions {
      */
     public static class Options implements Serializable {
 
+        /**
+         * The handler is called right away, in the same main thread message which finishes the
+         * request flow.
+         */
+        public static final int DISPATCH_IMMEDIATE = 0;
+
+        /**
+         * The handler is called on the main thread, on the first frame after the permission
+         * activity is gone, so that the work started by the handler doesn't cause dropped frames
+         * in the exit animation of the activity.
+         */
+        public static final int DISPATCH_NEXT_FRAME = 1;
+
+        /**
+         * The handler is called on a background thread, so it must not touch the UI directly.
+         */
+        public static final int DISPATCH_BACKGROUND = 2;
+
+        /**
+         * The prompt is shown right away.
+         */
+        public static final int PRIORITY_CRITICAL = 0;
+
+        /**
+         * If the request is made during the startup of the app, its prompt is held back until
+         * the main thread is idle after the first frame has been drawn, and then batched with
+         * the other deferred prompts.
+         */
+        public static final int PRIORITY_DEFERRABLE = 1;
+
         String settingsText = "Settings";
         String rationaleDialogTitle = "Permissions Required";
         String settingsDialogTitle = "Permissions Required";
@@ -157,6 +574,13 @@ public class Permissions {
                 " not to ask again! Please provide them from settings.";
         boolean sendBlockedToSettings = true;
         boolean createNewTask = false;
+        boolean requestInCallerActivity = false;
+        boolean resolveKnownBlocked = false;
+        boolean useSharedBroker = false;
+        int dispatchPolicy = DISPATCH_IMMEDIATE;
+        long timeoutMillis = 0L;
+        int priority = PRIORITY_CRITICAL;
+        transient RationaleRenderer rationaleRenderer;
 
         /**
          * Sets the button text for "settings" while asking user to go to settings.
@@ -182,6 +606,112 @@ public class Permissions {
             return this;
         }
 
+        /**
+         * If the calling context is an activity, requests the permissions through a headless
+         * fragment attached to that activity instead of launching a separate transparent
+         * activity. This saves an activity launch before the system dialog appears. For other
+         * contexts, the separate activity is still used and {@link #setCreateNewTask(boolean)}
+         * applies. The default state is false.
+         *
+         * @param requestInCallerActivity true to request from within the calling activity.
+         * @return same instance.
+         */
+        public Options setRequestInCallerActivity(boolean requestInCallerActivity) {
+            this.requestInCallerActivity = requestInCallerActivity;
+            return this;
+        }
+
+        /**
+         * If the calling context is an activity and all of the missing permissions are known
+         * (from the outcome of earlier requests) to have been set not to ask again,
+         * {@link PermissionHandler#onBlocked(Context, ArrayList)} is called directly, without
+         * launching the request flow. The user is sent to settings only if the handler asks for
+         * it. The default state is false.
+         *
+         * @param resolveKnownBlocked true to resolve known blocked permissions directly.
+         * @return same instance.
+         */
+        public Options setResolveKnownBlocked(boolean resolveKnownBlocked) {
+            this.resolveKnownBlocked = resolveKnownBlocked;
+            return this;
+        }
+
+        /**
+         * For apps running components in multiple processes: routes the request through a
+         * service in the main process, so that identical requests from different processes are
+         * served by a single prompt and all of the processes share the resulting grant states.
+         * {@link PermissionHandler#onBlocked(Context, ArrayList)} is not consulted for such
+         * requests; the default action is taken. The default state is false.
+         *
+         * @param useSharedBroker true to request through the main process.
+         * @return same instance.
+         */
+        public Options setUseSharedBroker(boolean useSharedBroker) {
+            this.useSharedBroker = useSharedBroker;
+            return this;
+        }
+
+        /**
+         * Sets when and where the handler of a request which needed a prompt is called. Requests
+         * which are already granted call the handler right away, regardless of the policy. The
+         * default policy is {@link #DISPATCH_IMMEDIATE}.
+         *
+         * @param dispatchPolicy one of the DISPATCH_ constants.
+         * @return same instance.
+         * @see PermissionMetricsListener.FrameListener
+         */
+        public Options setDispatchPolicy(int dispatchPolicy) {
+            this.dispatchPolicy = dispatchPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the priority of the prompt for requests made with these options. Requests which
+         * are not needed for the first screen can be made {@link #PRIORITY_DEFERRABLE}, so that
+         * their prompts don't slow down the startup of the app. Requests which are already
+         * granted call the handler right away, regardless of the priority. The default priority
+         * is {@link #PRIORITY_CRITICAL}.
+         *
+         * @param priority one of the PRIORITY_ constants.
+         * @return same instance.
+         * @see PermissionMetricsListener#PHASE_DEFERRED
+         */
+        public Options setPriority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * Sets a deadline for requests made with these options. If the user hasn't answered by
+         * then, the dialogs of the library are dismissed, the prompt is closed (unless it also
+         * serves other requests) and the request resolves to a result for which
+         * {@link PermissionResult#isTimedOut()} is true, or to
+         * {@link PermissionHandler#onTimedOut(Context, PermissionSet)}. The system permission
+         * dialog itself can't be dismissed, but its answer is ignored once the request has timed
+         * out. There is no deadline by default.
+         *
+         * @param timeoutMillis the time in milliseconds from the request, or 0 for no deadline.
+         * @return same instance.
+         */
+        public Options setTimeout(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets the renderer for the rationale and for the prompt to go to settings, instead of
+         * the default dialogs. Combined with {@link #setRequestInCallerActivity(boolean)}, the
+         * renderer can show them in the window of the calling activity. The renderer is not
+         * serialized along with the options.
+         *
+         * @param rationaleRenderer the renderer, or null for the default dialogs.
+         * @return same instance.
+         */
+        public Options setRationaleRenderer(RationaleRenderer rationaleRenderer) {
+            this.rationaleRenderer = rationaleRenderer;
+            return this;
+        }
+
         /**
          * Sets the title text for permission rationale dialog.
          *
@@ -230,6 +760,38 @@ public class Permissions {
             sendBlockedToSettings = send;
             return this;
         }
+
+        void writeToParcel(Parcel dest) {
+            dest.writeString(settingsText);
+            dest.writeString(rationaleDialogTitle);
+            dest.writeString(settingsDialogTitle);
+            dest.writeString(settingsDialogMessage);
+            dest.writeInt(sendBlockedToSettings ? 1 : 0);
+            dest.writeInt(createNewTask ? 1 : 0);
+            dest.writeInt(requestInCallerActivity ? 1 : 0);
+            dest.writeInt(resolveKnownBlocked ? 1 : 0);
+            dest.writeInt(useSharedBroker ? 1 : 0);
+            dest.writeInt(dispatchPolicy);
+            dest.writeLong(timeoutMillis);
+            dest.writeInt(priority);
+        }
+
+        static Options readFromParcel(Parcel in) {
+            Options options = new Options();
+            options.settingsText = in.readString();
+            options.rationaleDialogTitle = in.readString();
+            options.settingsDialogTitle = in.readString();
+            options.settingsDialogMessage = in.readString();
+            options.sendBlockedToSettings = in.readInt() != 0;
+            options.createNewTask = in.readInt() != 0;
+            options.requestInCallerActivity = in.readInt() != 0;
+            options.resolveKnownBlocked = in.readInt() != 0;
+            options.useSharedBroker = in.readInt() != 0;
+            options.dispatchPolicy = in.readInt();
+            options.timeoutMillis = in.readLong();
+            options.priority = in.readInt();
+            return options;
+        }
     }
 
 }
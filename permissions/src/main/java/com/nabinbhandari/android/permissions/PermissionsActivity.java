@@ -2,231 +2,199 @@ package com.nabinbhandari.android.permissions;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
-import android.app.AlertDialog;
-import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.provider.Settings;
-import android.text.TextUtils;
+import android.os.Handler;
+import android.os.Looper;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 
 /**
  * Created by Nabin Bhandari on 7/21/2017 on 11:19 PM
  */
 
-@SuppressWarnings("unchecked")
 @TargetApi(Build.VERSION_CODES.M)
-public class PermissionsActivity extends Activity {
+public class PermissionsActivity extends Activity implements RequestFlow.Host {
 
-    private static final int RC_SETTINGS = 6739;
-    private static final int RC_PERMISSION = 6937;
+    static final String EXTRA_REQUEST = "request";
+    private static final String STATE_PENDING = "pending";
 
-    static final String EXTRA_PERMISSIONS = "permissions";
-    static final String EXTRA_RATIONALE = "rationale";
-    static final String EXTRA_OPTIONS = "options";
-
-    static PermissionHandler permissionHandler;
-
-    private ArrayList<String> allPermissions, deniedPermissions, noRationaleList;
-    private Permissions.Options options;
+    // Requests handed over to this instance while it is alive, so that a burst of requests is
+    // served without creating a new activity for each one.
+    private final Queue<PermissionRequest> pending = new ArrayDeque<>();
+    private RequestFlow flow;
 
     @TargetApi(Build.VERSION_CODES.M)
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setFinishOnTouchOutside(false);
-        Intent intent = getIntent();
-        if (intent == null || !intent.hasExtra(EXTRA_PERMISSIONS)) {
-            finish();
+        FrameDispatcher.INSTANCE.onHostCreated();
+        getWindow().setStatusBarColor(0);
+        if (savedInstanceState == null) {
+            addRequest(getIntent());
+        } else {
+            restorePending(savedInstanceState);
+        }
+        PermissionRequest request = RequestFlow.getSavedRequest(savedInstanceState);
+        if (request == null) {
+            // Also when recreated between two flows: the next pending one starts.
+            startNext();
             return;
         }
-
-        getWindow().setStatusBarColor(0);
-        allPermissions = (ArrayList<String>) intent.getSerializableExtra(EXTRA_PERMISSIONS);
-        options = (Permissions.Options) intent.getSerializableExtra(EXTRA_OPTIONS);
-        if (options == null) {
-            options = new Permissions.Options();
-        }
-        deniedPermissions = new ArrayList<>();
-        noRationaleList = new ArrayList<>();
-
-        boolean noRationale = true;
-        for (String permission : allPermissions) {
-            if (checkSelfPermission(permission) != PackageManager.PERMISSION_GRANTED) {
-                deniedPermissions.add(permission);
-                if (shouldShowRequestPermissionRationale(permission)) {
-                    noRationale = false;
-                } else {
-                    noRationaleList.add(permission);
-                }
-            }
+        // Recreated, possibly in a new process: resume the flow where it was.
+        RequestBroker.Prompt prompt = RequestFlow.getPrompt(request, savedInstanceState);
+        if (prompt == null) {
+            Permissions.log("Request no longer pending.");
+            startNext();
+            return;
         }
+        flow = new RequestFlow(this, prompt, request);
+        flow.resume(savedInstanceState);
+    }
 
-        if (deniedPermissions.isEmpty()) {
-            grant();
-            return;
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (flow != null) {
+            flow.saveState(outState);
+        }
+        if (!pending.isEmpty()) {
+            outState.putParcelableArrayList(STATE_PENDING, new ArrayList<>(pending));
         }
+    }
 
-        String rationale = intent.getStringExtra(EXTRA_RATIONALE);
-        if (noRationale || TextUtils.isEmpty(rationale)) {
-            Permissions.log("No rationale.");
-            requestPermissions(toArray(deniedPermissions), RC_PERMISSION);
+    @SuppressWarnings("deprecation")
+    private void restorePending(Bundle savedState) {
+        List<PermissionRequest> requests;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            requests = savedState.getParcelableArrayList(STATE_PENDING, PermissionRequest.class);
         } else {
-            Permissions.log("Show rationale.");
-            showRationale(rationale);
+            requests = savedState.getParcelableArrayList(STATE_PENDING);
+        }
+        if (requests != null) {
+            pending.addAll(requests);
         }
     }
 
-    private void showRationale(String rationale) {
-        DialogInterface.OnClickListener listener = new DialogInterface.OnClickListener() {
-            @Override
-            public void onClick(DialogInterface dialog, int which) {
-                if (which == DialogInterface.BUTTON_POSITIVE) {
-                    requestPermissions(toArray(deniedPermissions), RC_PERMISSION);
-                } else {
-                    deny();
-                }
-            }
-        };
-        new AlertDialog.Builder(this).setTitle(options.rationaleDialogTitle)
-                .setMessage(rationale)
-                .setPositiveButton(android.R.string.ok, listener)
-                .setNegativeButton(android.R.string.cancel, listener)
-                .setOnCancelListener(new DialogInterface.OnCancelListener() {
-                    @Override
-                    public void onCancel(DialogInterface dialog) {
-                        deny();
-                    }
-                }).create().show();
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+        addRequest(intent);
+        if (flow == null) {
+            startNext();
+        }
     }
 
-    @SuppressWarnings("NullableProblems")
-    @Override
-    public void onRequestPermissionsResult(int requestCode, String[] permissions,
-                                           int[] grantResults) {
-        if (grantResults.length == 0) {
-            deny();
+    @SuppressWarnings("deprecation")
+    private void addRequest(Intent intent) {
+        if (intent == null) return;
+        PermissionRequest request;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            request = intent.getParcelableExtra(EXTRA_REQUEST, PermissionRequest.class);
         } else {
-            deniedPermissions.clear();
-            for (int i = 0; i < grantResults.length; i++) {
-                if (grantResults[i] != PackageManager.PERMISSION_GRANTED) {
-                    deniedPermissions.add(permissions[i]);
-                }
-            }
-            if (deniedPermissions.size() == 0) {
-                Permissions.log("Just allowed.");
-                grant();
-            } else {
-                ArrayList<String> blockedList = new ArrayList<>(); //set not to ask again.
-                ArrayList<String> justBlockedList = new ArrayList<>(); //just set not to ask again.
-                ArrayList<String> justDeniedList = new ArrayList<>();
-                for (String permission : deniedPermissions) {
-                    if (shouldShowRequestPermissionRationale(permission)) {
-                        justDeniedList.add(permission);
-                    } else {
-                        blockedList.add(permission);
-                        if (!noRationaleList.contains(permission)) {
-                            justBlockedList.add(permission);
-                        }
-                    }
-                }
-
-                if (justBlockedList.size() > 0) { //checked don't ask again for at least one.
-                    PermissionHandler permissionHandler = PermissionsActivity.permissionHandler;
-                    finish();
-                    if (permissionHandler != null) {
-                        permissionHandler.onJustBlocked(getApplicationContext(), justBlockedList,
-                                deniedPermissions);
-                    }
-
-                } else if (justDeniedList.size() > 0) { //clicked deny for at least one.
-                    deny();
+            request = intent.getParcelableExtra(EXTRA_REQUEST);
+        }
+        if (request != null) {
+            pending.add(request);
+        }
+    }
 
-                } else { //unavailable permissions were already set not to ask again.
-                    if (permissionHandler != null &&
-                            !permissionHandler.onBlocked(getApplicationContext(), blockedList)) {
-                        sendToSettings();
+    /**
+     * Hands the request of the given prompt over to this instance, if it is still alive.
+     *
+     * @return false if this instance is finishing, in which case a new one has to be started.
+     */
+    boolean offer(RequestBroker.Prompt prompt) {
+        if (isFinishing() || isDestroyed()) return false;
+        Permissions.log("Reusing permission activity.");
+        pending.add(prompt.request);
+        return true;
+    }
 
-                    } else finish();
-                }
+    /**
+     * Starts the flow for the next pending request, or finishes the activity if there is none.
+     */
+    private void startNext() {
+        PermissionRequest request;
+        while ((request = pending.poll()) != null) {
+            RequestBroker.Prompt prompt = RequestBroker.getPrompt(request.id);
+            if (prompt == null) {
+                Permissions.log("Request no longer pending.");
+                continue;
             }
+            flow = new RequestFlow(this, prompt, request);
+            flow.start();
+            return;
         }
+        finish();
     }
 
-    private void sendToSettings() {
-        if (!options.sendBlockedToSettings) {
-            deny();
-            return;
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions,
+                                           int[] grantResults) {
+        if (flow != null) {
+            flow.onRequestPermissionsResult(permissions, grantResults);
         }
-        Permissions.log("Ask to go to settings.");
-        new AlertDialog.Builder(this).setTitle(options.settingsDialogTitle)
-                .setMessage(options.settingsDialogMessage)
-                .setPositiveButton(options.settingsText, new DialogInterface.OnClickListener() {
-                    @Override
-                    @SuppressWarnings("InlinedAPI")
-                    public void onClick(DialogInterface dialog, int which) {
-                        Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS,
-                                Uri.fromParts("package", getPackageName(), null));
-                        startActivityForResult(intent, RC_SETTINGS);
-                    }
-                })
-                .setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
-                    @Override
-                    public void onClick(DialogInterface dialog, int which) {
-                        deny();
-                    }
-                })
-                .setOnCancelListener(new DialogInterface.OnCancelListener() {
-                    @Override
-                    public void onCancel(DialogInterface dialog) {
-                        deny();
-                    }
-                }).create().show();
     }
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        if (requestCode == RC_SETTINGS && permissionHandler != null) {
-            Permissions.check(this, toArray(allPermissions), null, options,
-                    permissionHandler);
+        if (flow != null) {
+            flow.onActivityResult(requestCode);
+        } else {
+            finish();
         }
-        // super, because overridden method will make the handler null, and we don't want that.
-        super.finish();
     }
 
-    private String[] toArray(ArrayList<String> arrayList) {
-        int size = arrayList.size();
-        String[] array = new String[size];
-        for (int i = 0; i < size; i++) {
-            array[i] = arrayList.get(i);
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        FrameDispatcher.INSTANCE.onHostDestroyed();
+        if (flow != null) {
+            flow.onHostDestroyed(isFinishing());
+        }
+        if (isFinishing()) {
+            // Requests handed over but not started yet must not block the queued ones.
+            PermissionRequest request;
+            while ((request = pending.poll()) != null) {
+                RequestBroker.Prompt prompt = RequestBroker.getPrompt(request.id);
+                if (prompt != null) {
+                    RequestBroker.dispatchDenied(prompt, request.permissions);
+                    RequestBroker.complete(getApplicationContext(), prompt);
+                }
+            }
         }
-        return array;
     }
 
     @Override
-    public void finish() {
-        permissionHandler = null;
-        super.finish();
-    }
-
-    private void deny() {
-        PermissionHandler permissionHandler = PermissionsActivity.permissionHandler;
-        finish();
-        if (permissionHandler != null) {
-            permissionHandler.onDenied(getApplicationContext(), deniedPermissions);
-        }
+    public Activity getActivity() {
+        return this;
     }
 
-    private void grant() {
-        PermissionHandler permissionHandler = PermissionsActivity.permissionHandler;
-        finish();
-        if (permissionHandler != null) {
-            permissionHandler.onGranted();
+    @Override
+    public void finishHost() {
+        flow = null;
+        if (pending.isEmpty()) {
+            finish();
+            return;
         }
+        // Let the result of the finished flow be dispatched before the next one starts.
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                // Not if recreated meanwhile: the new instance starts it instead.
+                if (flow == null && !isFinishing() && !isDestroyed()) {
+                    startNext();
+                }
+            }
+        });
     }
 
 }
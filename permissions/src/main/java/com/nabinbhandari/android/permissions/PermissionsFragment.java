@@ -0,0 +1,110 @@
+package com.nabinbhandari.android.permissions;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Fragment;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+
+/**
+ * A retained headless fragment which runs the permission request flow inside the caller's
+ * activity, avoiding the launch of {@link PermissionsActivity} when the caller is already a
+ * foreground activity.
+ *
+ * @see Permissions.Options#setRequestInCallerActivity(boolean)
+ */
+@SuppressWarnings("deprecation")
+@TargetApi(Build.VERSION_CODES.M)
+public class PermissionsFragment extends Fragment implements RequestFlow.Host {
+
+    static final String TAG = "com.nabinbhandari.android.permissions.PermissionsFragment";
+
+    private RequestFlow flow;
+
+    /**
+     * Attaches a new fragment for the given prompt to the given activity.
+     *
+     * @return false if the fragment could not be attached.
+     */
+    static boolean attach(Activity activity, RequestBroker.Prompt prompt) {
+        if (activity.isFinishing() || activity.isDestroyed()) {
+            return false;
+        }
+        PermissionsFragment fragment = new PermissionsFragment();
+        Bundle arguments = new Bundle();
+        arguments.putParcelable(PermissionsActivity.EXTRA_REQUEST, prompt.request);
+        fragment.setArguments(arguments);
+        activity.getFragmentManager().beginTransaction()
+                .add(fragment, TAG + ":" + prompt.id)
+                .commitAllowingStateLoss();
+        return true;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+        if (flow != null) return;
+        Bundle arguments = getArguments();
+        PermissionRequest request = arguments == null ? null :
+                (PermissionRequest) arguments.getParcelable(PermissionsActivity.EXTRA_REQUEST);
+        RequestBroker.Prompt prompt = request == null ? null :
+                RequestFlow.getPrompt(request, savedInstanceState);
+        if (prompt == null) {
+            Permissions.log("Request no longer pending.");
+            finishHost();
+            return;
+        }
+        Permissions.log("Requesting in caller activity.");
+        flow = new RequestFlow(this, prompt, request);
+        if (savedInstanceState == null) {
+            flow.start();
+        } else {
+            // Recreated in a new process: resume the flow where it was.
+            flow.resume(savedInstanceState);
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (flow != null) {
+            flow.saveState(outState);
+        }
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions,
+                                           int[] grantResults) {
+        if (flow != null) {
+            flow.onRequestPermissionsResult(permissions, grantResults);
+        }
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (flow != null) {
+            flow.onActivityResult(requestCode);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (flow != null) {
+            // Not finishing if the activity is only destroyed to be recreated later, e.g. with
+            // "don't keep activities": the flow resumes in the recreated fragment.
+            flow.onHostDestroyed(getActivity().isFinishing());
+        }
+    }
+
+    @Override
+    public void finishHost() {
+        if (getFragmentManager() != null) {
+            getFragmentManager().beginTransaction().remove(this).commitAllowingStateLoss();
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.nabinbhandari.android.permissions;
+
+import android.app.Activity;
+
+/**
+ * Renders the rationale and the prompt to go to settings. The default renderer shows dialogs;
+ * apps can supply their own renderer via {@link Permissions.Options#setRationaleRenderer(
+ * RationaleRenderer)}, e.g. to show a view or an overlay in the window of the calling activity
+ * (see {@link Permissions.Options#setRequestInCallerActivity(boolean)}).
+ * <p>
+ * The methods are called on the main thread, and the callback must be invoked exactly once,
+ * also on the main thread.
+ */
+public interface RationaleRenderer {
+
+    /**
+     * Receives the answer of the user.
+     */
+    interface Callback {
+
+        /**
+         * @param accepted true if the user wants to continue, false otherwise.
+         */
+        void onResult(boolean accepted);
+    }
+
+    /**
+     * Shows the rationale. If accepted, the permissions are requested.
+     *
+     * @param activity  the activity hosting the request flow.
+     * @param title     the title, as set in the options.
+     * @param rationale the explanation of why the permissions are needed.
+     * @param callback  the callback to be invoked with the answer of the user.
+     */
+    void showRationale(Activity activity, String title, String rationale, Callback callback);
+
+    /**
+     * Asks the user to go to settings, for permissions which have been set not to ask again. If
+     * accepted, the settings screen of the app is opened.
+     *
+     * @param activity     the activity hosting the request flow.
+     * @param title        the title, as set in the options.
+     * @param message      the message, as set in the options.
+     * @param settingsText the text for "settings", as set in the options.
+     * @param callback     the callback to be invoked with the answer of the user.
+     */
+    void showSettingsPrompt(Activity activity, String title, String message, String settingsText,
+                            Callback callback);
+
+    /**
+     * Dismisses the rationale or the prompt to go to settings currently shown in the given
+     * activity, if any, because the request has been cancelled or has timed out. The callback
+     * of the dismissed prompt must not be invoked.
+     *
+     * @param activity the activity hosting the request flow.
+     */
+    void dismiss(Activity activity);
+
+}
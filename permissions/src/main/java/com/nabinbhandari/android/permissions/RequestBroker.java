@@ -0,0 +1,719 @@
+package com.nabinbhandari.android.permissions;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of pending permission requests, so that concurrent calls to
+ * {@link Permissions#check(Context, String[], String, Permissions.Options, PermissionHandler)}
+ * don't clobber each other.
+ * <p>
+ * Each request is keyed by its id. Only one {@link Prompt} is shown at a time; requests which
+ * arrive while a prompt is active either join it (if the prompt covers all of their permissions)
+ * or are queued. When the active prompt completes, queued requests with the same options are
+ * merged into a single prompt, and the result is fanned out to every waiting request, each one
+ * classified on its own permissions.
+ * <p>
+ * Deferrable requests made during the startup of the app are queued without starting a prompt
+ * until {@link StartupScheduler} reports that startup is over. They are then merged like any
+ * queued requests, and the prompts which follow each other reuse the same
+ * {@link PermissionsActivity}.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+final class RequestBroker {
+
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    private static final Map<Integer, Request> queue = new LinkedHashMap<>();
+    // Requests waiting for their caller to re-attach: those restored after the process has been
+    // restarted, and those whose activity is being recreated.
+    private static final Map<Integer, PermissionFuture> restored = new HashMap<>();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static Prompt activePrompt;
+    private static int droppedCount;
+    private static int deferredCount;
+    private static boolean startupOver;
+
+    private RequestBroker() {
+    }
+
+    /**
+     * A permission request made by a single caller.
+     */
+    static final class Request {
+        final int id;
+        final PermissionRequest descriptor;
+        final PermissionSet permissions;
+        final Permissions.Options options;
+        final PermissionFuture future;
+        // Replaced when the request is re-attached from a recreated activity.
+        WeakReference<Activity> owner;
+        final String[] rationales;
+        final boolean settingsOnly;
+        final boolean deferrable;
+
+        Request(Context context, PermissionRequest descriptor, PermissionFuture future) {
+            this(nextId.getAndIncrement(), context, descriptor, future);
+        }
+
+        Request(int id, Context context, PermissionRequest descriptor, PermissionFuture future) {
+            this.id = id;
+            this.descriptor = descriptor;
+            this.permissions = descriptor.permissions;
+            this.rationales = descriptor.rationales;
+            this.options = descriptor.options;
+            this.settingsOnly = descriptor.settingsOnly;
+            this.deferrable = options != null
+                    && options.priority == Permissions.Options.PRIORITY_DEFERRABLE;
+            this.future = future;
+            this.owner = context instanceof Activity ?
+                    new WeakReference<>((Activity) context) : null;
+        }
+
+        /**
+         * @return true if the request has more than one stage, in which case it is never merged
+         * with other requests.
+         */
+        boolean isStaged() {
+            return descriptor.stages.length > 1;
+        }
+    }
+
+    /**
+     * A single run of the request flow, serving one or more requests.
+     */
+    static final class Prompt {
+        final int id;
+        final Permissions.Options options;
+        final PermissionRequest request;
+        final List<Request> requests;
+        // The flow running the prompt, once its host has started it (main thread only).
+        RequestFlow flow;
+        // Set once all of the requests have been cancelled or have timed out.
+        boolean aborted;
+
+        Prompt(List<Request> requests) {
+            this(nextId.getAndIncrement(), requests);
+        }
+
+        Prompt(int id, List<Request> requests) {
+            this.id = id;
+            this.requests = requests;
+            this.options = requests.get(0).options;
+            Request first = requests.get(0);
+            if (first.isStaged()) {
+                this.request = new PermissionRequest(id, first.descriptor.stages,
+                        first.rationales, options, first.settingsOnly);
+                return;
+            }
+            PermissionSet.Builder permissions = new PermissionSet.Builder();
+            StringBuilder rationale = null;
+            for (Request request : requests) {
+                permissions.addAll(request.permissions);
+                String own = request.rationales[0];
+                if (TextUtils.isEmpty(own)) continue;
+                if (rationale == null) {
+                    rationale = new StringBuilder(own);
+                } else if (rationale.indexOf(own) < 0) {
+                    rationale.append("\n\n").append(own);
+                }
+            }
+            this.request = new PermissionRequest(id, permissions.build(),
+                    rationale == null ? null : rationale.toString(), options,
+                    requests.get(0).settingsOnly);
+        }
+    }
+
+    /**
+     * @return a new request id, unique within this process.
+     */
+    static int nextId() {
+        return nextId.getAndIncrement();
+    }
+
+    /**
+     * Submits a request which needs a prompt. The request starts a new prompt, joins the active
+     * prompt or is queued until the active prompt completes.
+     *
+     * Staged requests never join nor are merged with other requests.
+     *
+     * @param descriptor the request; its settings-only flag tells that the permissions are known
+     *                   to be blocked, so that the user is to be sent to settings directly,
+     *                   without requesting the permissions.
+     * @return the id of the request.
+     */
+    static int submit(Context context, PermissionRequest descriptor, PermissionFuture future) {
+        Request request = new Request(context, descriptor, future);
+        future.requestId = request.id;
+        Permissions.phase(request.id, PermissionMetricsListener.PHASE_CHECK);
+        scheduleDeadline(context, request);
+        Prompt prompt = null;
+        boolean deferred = false;
+        synchronized (RequestBroker.class) {
+            boolean defer = isDeferred(request);
+            if (activePrompt == null && !defer) {
+                List<Request> requests = new ArrayList<>();
+                requests.add(request);
+                prompt = activePrompt = new Prompt(requests);
+            } else if (activePrompt != null
+                    && activePrompt.options == request.options && !request.settingsOnly
+                    && !request.isStaged() && !activePrompt.request.settingsOnly
+                    && activePrompt.request.getStageCount() == 1
+                    && activePrompt.request.permissions.containsAll(request.permissions)
+                    && !activePrompt.requests.isEmpty()) {
+                Permissions.log("Joined active request.");
+                activePrompt.requests.add(request);
+            } else if (defer) {
+                Permissions.log("Request deferred until startup is over.");
+                queue.put(request.id, request);
+                deferredCount++;
+                deferred = true;
+            } else {
+                Permissions.log("Request queued.");
+                queue.put(request.id, request);
+            }
+        }
+        if (prompt != null) {
+            DecisionStore.preload(context);
+            launch(context, prompt);
+        } else if (deferred) {
+            Permissions.phase(request.id, PermissionMetricsListener.PHASE_DEFERRED);
+            StartupScheduler.INSTANCE.schedule(context);
+        }
+        return request.id;
+    }
+
+    /**
+     * Removes the request with the given id, so that it won't receive any result. The active
+     * prompt is closed if it no longer serves any request.
+     */
+    static void cancel(int requestId) {
+        Prompt aborted;
+        synchronized (RequestBroker.class) {
+            if (queue.remove(requestId) != null || remove(requestId) == null) return;
+            aborted = abortIfEmpty();
+        }
+        if (aborted != null) abort(aborted);
+    }
+
+    /**
+     * Resolves the request with the given id as timed out, if it is still pending. The active
+     * prompt is closed if it no longer serves any request.
+     */
+    private static void expire(Context context, int requestId) {
+        Request request;
+        Prompt aborted = null;
+        synchronized (RequestBroker.class) {
+            request = queue.remove(requestId);
+            if (request == null) {
+                request = remove(requestId);
+                if (request == null) return;
+                aborted = abortIfEmpty();
+            }
+        }
+        Permissions.log("Request timed out.");
+        if (aborted != null) abort(aborted);
+        PermissionSet.Builder denied = new PermissionSet.Builder();
+        for (String permission : request.permissions) {
+            if (PermissionCache.checkSelfPermission(context, permission)
+                    != PackageManager.PERMISSION_GRANTED) {
+                denied.add(permission);
+            }
+        }
+        request.future.complete(PermissionResult.timedOut(request.permissions, denied.build()));
+    }
+
+    /**
+     * Expires the request once the timeout set in its options has passed.
+     */
+    private static void scheduleDeadline(Context context, final Request request) {
+        long timeout = request.options == null ? 0L : request.options.timeoutMillis;
+        if (timeout <= 0L) return;
+        final Context appContext = context.getApplicationContext();
+        Runnable deadline = new Runnable() {
+            @Override
+            public void run() {
+                expire(appContext, request.id);
+            }
+        };
+        request.future.setDeadline(deadline);
+        mainHandler.postDelayed(deadline, timeout);
+    }
+
+    static void unschedule(Runnable deadline) {
+        mainHandler.removeCallbacks(deadline);
+    }
+
+    /**
+     * Removes the request with the given id from the active prompt.
+     */
+    private static Request remove(int requestId) {
+        if (activePrompt == null) return null;
+        for (Iterator<Request> it = activePrompt.requests.iterator(); it.hasNext(); ) {
+            Request request = it.next();
+            if (request.id == requestId) {
+                it.remove();
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the pending request with the given id, queued or served by the active prompt, or
+     * null if there is no such request.
+     */
+    private static Request find(int requestId) {
+        Request request = queue.get(requestId);
+        if (request != null || activePrompt == null) return request;
+        for (Request served : activePrompt.requests) {
+            if (served.id == requestId) return served;
+        }
+        return null;
+    }
+
+    /**
+     * Marks the active prompt as aborted if it no longer serves any request. Requests are only
+     * removed from the prompt while it is being dispatched, and those removals don't go through
+     * here.
+     *
+     * @return the aborted prompt, or null.
+     */
+    private static Prompt abortIfEmpty() {
+        if (activePrompt == null || !activePrompt.requests.isEmpty()) return null;
+        activePrompt.aborted = true;
+        return activePrompt;
+    }
+
+    /**
+     * Closes the given aborted prompt: its flow dismisses the dialogs and removes its host. A
+     * flow which hasn't started yet closes the prompt as soon as it starts.
+     */
+    private static void abort(final Prompt prompt) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    abort(prompt);
+                }
+            });
+            return;
+        }
+        if (prompt.flow != null) {
+            prompt.flow.abort();
+        }
+    }
+
+    static synchronized boolean isAborted(Prompt prompt) {
+        return prompt.aborted;
+    }
+
+    /**
+     * @return the active prompt with the given id, or null if there is no such prompt.
+     */
+    static synchronized Prompt getPrompt(int promptId) {
+        return activePrompt != null && activePrompt.id == promptId ? activePrompt : null;
+    }
+
+    /**
+     * @return the ids of the requests served by the given prompt.
+     */
+    static synchronized int[] getRequestIds(Prompt prompt) {
+        int[] ids = new int[prompt.requests.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = prompt.requests.get(i).id;
+        }
+        return ids;
+    }
+
+    /**
+     * Restores the prompt of the given request after the process has been restarted, with
+     * placeholders for the requests it was serving. Their results are kept until the callers
+     * re-attach via {@link #reattach(Context, int, Executor, PermissionCallback)}.
+     *
+     * @return the restored prompt, or null if another prompt is active.
+     */
+    static synchronized Prompt restore(PermissionRequest request, int[] requestIds) {
+        if (activePrompt != null) {
+            return activePrompt.id == request.id ? activePrompt : null;
+        }
+        int maxId = request.id;
+        List<Request> requests = new ArrayList<>();
+        for (int id : requestIds) {
+            PermissionFuture future = new PermissionFuture(Permissions.DIRECT_EXECUTOR, null);
+            future.requestId = id;
+            requests.add(new Request(id, null, request, future));
+            restored.put(id, future);
+            maxId = Math.max(maxId, id);
+        }
+        // Ids handed out from now on must not collide with the restored ones.
+        int next;
+        while ((next = nextId.get()) <= maxId) {
+            nextId.compareAndSet(next, maxId + 1);
+        }
+        Permissions.log("Restored request after process restart.");
+        return activePrompt = new Prompt(request.id, requests);
+    }
+
+    /**
+     * Re-attaches a callback to a request restored after the process has been restarted, or
+     * parked while its activity was being recreated.
+     *
+     * @param context the context of the caller; if it is an activity, the request is dropped
+     *                when that activity finishes, like a request made from it.
+     * @return the future of the request, or null if there is no such request.
+     */
+    static PermissionFuture reattach(Context context, int requestId, Executor executor,
+                                     PermissionCallback callback) {
+        PermissionFuture future;
+        synchronized (RequestBroker.class) {
+            future = restored.remove(requestId);
+            Request request = future == null ? null : find(requestId);
+            if (request != null) {
+                request.owner = context instanceof Activity ?
+                        new WeakReference<>((Activity) context) : null;
+            }
+        }
+        if (future != null) {
+            future.attach(executor, callback);
+        }
+        return future;
+    }
+
+    /**
+     * Reports the given phase for every request of the prompt, if a metrics listener is set.
+     */
+    static void phase(Prompt prompt, int phase) {
+        if (Permissions.metricsListener == null) return;
+        int[] ids;
+        synchronized (RequestBroker.class) {
+            ids = new int[prompt.requests.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = prompt.requests.get(i).id;
+            }
+        }
+        for (int id : ids) {
+            Permissions.phase(id, phase);
+        }
+    }
+
+    /**
+     * Releases the handlers (which usually capture the activity) of the pending requests made
+     * from the given activity, which is being destroyed. If the activity is finishing, the
+     * requests are dropped. Otherwise it is only being recreated, e.g. for a configuration
+     * change: the requests are parked, going on without a handler until the new instance
+     * re-attaches via {@link #reattach(Context, int, Executor, PermissionCallback)}.
+     */
+    static void onOwnerDestroyed(Activity activity) {
+        if (!activity.isFinishing()) {
+            park(activity);
+            return;
+        }
+        List<Request> dropped = new ArrayList<>();
+        Prompt aborted = null;
+        synchronized (RequestBroker.class) {
+            takeOwned(queue.values(), activity, dropped);
+            if (activePrompt != null) {
+                takeOwned(activePrompt.requests, activity, dropped);
+                if (!dropped.isEmpty()) {
+                    aborted = abortIfEmpty();
+                }
+            }
+            droppedCount += dropped.size();
+        }
+        drop(dropped);
+        if (aborted != null) abort(aborted);
+    }
+
+    /**
+     * Drops the requests of the given prompt made from the given activity, which is finishing,
+     * without reporting anything to them. Called by a flow hosted in that activity, which is
+     * destroyed before the activity itself reports its destruction.
+     */
+    static void dropOwned(Prompt prompt, Activity activity) {
+        List<Request> dropped = new ArrayList<>();
+        synchronized (RequestBroker.class) {
+            takeOwned(prompt.requests, activity, dropped);
+            droppedCount += dropped.size();
+        }
+        drop(dropped);
+    }
+
+    /**
+     * Moves the requests made from the given activity out of the given requests.
+     */
+    private static void takeOwned(Iterable<Request> requests, Activity activity,
+                                  List<Request> owned) {
+        for (Iterator<Request> it = requests.iterator(); it.hasNext(); ) {
+            Request request = it.next();
+            if (request.owner != null && request.owner.get() == activity) {
+                it.remove();
+                owned.add(request);
+            }
+        }
+    }
+
+    private static void drop(List<Request> dropped) {
+        for (Request request : dropped) {
+            Permissions.log("Dropped request of destroyed activity.");
+            request.future.cancel(false);
+        }
+    }
+
+    private static void park(Activity activity) {
+        List<Request> parked = new ArrayList<>();
+        synchronized (RequestBroker.class) {
+            for (Request request : queue.values()) {
+                if (request.owner != null && request.owner.get() == activity) {
+                    parked.add(request);
+                }
+            }
+            if (activePrompt != null) {
+                for (Request request : activePrompt.requests) {
+                    if (request.owner != null && request.owner.get() == activity) {
+                        parked.add(request);
+                    }
+                }
+            }
+            for (Request request : parked) {
+                restored.put(request.id, request.future);
+            }
+        }
+        for (Request request : parked) {
+            Permissions.log("Parked request of recreated activity.");
+            request.future.detach();
+        }
+    }
+
+    /**
+     * @return true if the prompt of the request waits for the end of startup.
+     */
+    private static boolean isDeferred(Request request) {
+        return request.deferrable && !startupOver && !StartupScheduler.isWindowOver();
+    }
+
+    /**
+     * @return the number of requests (and thus handlers) currently retained.
+     */
+    static synchronized int getRetainedCount() {
+        return queue.size() + (activePrompt == null ? 0 : activePrompt.requests.size());
+    }
+
+    /**
+     * @return the number of requests dropped because their activity was destroyed.
+     */
+    static synchronized int getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the number of requests whose prompt has been deferred until startup was over.
+     */
+    static synchronized int getDeferredCount() {
+        return deferredCount;
+    }
+
+    /**
+     * Marks the given prompt as completed, and starts the next prompt for the queued requests,
+     * if any. Requests which are already satisfied are dispatched without a prompt.
+     */
+    static void complete(Context context, Prompt prompt) {
+        List<Request> granted = new ArrayList<>();
+        Prompt next;
+        synchronized (RequestBroker.class) {
+            if (activePrompt != prompt) return;
+            activePrompt = null;
+            next = activePrompt = nextPrompt(context, granted);
+        }
+        for (Request request : granted) {
+            request.future.complete(PermissionResult.granted(request.permissions));
+        }
+        if (next != null) {
+            Permissions.log("Starting queued request(s).");
+            launch(context, next);
+        }
+    }
+
+    /**
+     * Releases the deferrable requests held back during startup, starting a prompt for them
+     * unless a prompt is active already.
+     */
+    static void onStartupOver(Context context) {
+        List<Request> granted = new ArrayList<>();
+        List<Request> released = new ArrayList<>();
+        Prompt next = null;
+        synchronized (RequestBroker.class) {
+            startupOver = true;
+            for (Request request : queue.values()) {
+                if (request.deferrable) released.add(request);
+            }
+            if (activePrompt == null) {
+                next = activePrompt = nextPrompt(context, granted);
+            }
+        }
+        for (Request request : released) {
+            Permissions.phase(request.id, PermissionMetricsListener.PHASE_RELEASED);
+        }
+        for (Request request : granted) {
+            request.future.complete(PermissionResult.granted(request.permissions));
+        }
+        if (next != null) {
+            Permissions.log("Starting deferred request(s).");
+            // Prompting from the calling activity avoids starting a new task.
+            Request first = next.requests.get(0);
+            Activity owner = first.owner == null ? null : first.owner.get();
+            launch(owner != null && !owner.isFinishing() ? owner : context, next);
+        }
+    }
+
+    /**
+     * Takes the queued requests which are already satisfied, into the given list, and merges the
+     * first of the other queued requests with those which can share its prompt. Deferrable
+     * requests are left in the queue until startup is over.
+     *
+     * @return the prompt for the merged requests, or null if no request is left to prompt for.
+     */
+    private static Prompt nextPrompt(Context context, List<Request> granted) {
+        Permissions.Options options = null;
+        boolean settingsOnly = false;
+        List<Request> merged = new ArrayList<>();
+        for (Iterator<Request> it = queue.values().iterator(); it.hasNext(); ) {
+            Request request = it.next();
+            if (isDeferred(request)) continue;
+            if (isGranted(context, request.permissions)) {
+                it.remove();
+                granted.add(request);
+            } else if (merged.isEmpty() || (request.options == options
+                    && request.settingsOnly == settingsOnly && !request.isStaged()
+                    && !merged.get(0).isStaged())) {
+                it.remove();
+                merged.add(request);
+                options = request.options;
+                settingsOnly = request.settingsOnly;
+            }
+        }
+        return merged.isEmpty() ? null : new Prompt(merged);
+    }
+
+    /**
+     * Reports every request of the prompt as granted.
+     */
+    static void dispatchGranted(Prompt prompt) {
+        for (Request request : detach(prompt)) {
+            request.future.complete(PermissionResult.granted(request.permissions));
+        }
+    }
+
+    /**
+     * Reports the given denied permissions to every request of the prompt. Requests for which
+     * none of the permissions have been denied are reported as granted.
+     */
+    static void dispatchDenied(Prompt prompt, PermissionSet denied) {
+        for (Request request : detach(prompt)) {
+            request.future.complete(PermissionResult.denied(request.permissions,
+                    denied.intersect(request.permissions)));
+        }
+    }
+
+    /**
+     * Reports the given result to every request of the prompt, each one restricted to its own
+     * permissions.
+     */
+    static void dispatch(Prompt prompt, PermissionResult result) {
+        for (Request request : detach(prompt)) {
+            request.future.complete(result.restrict(request.permissions));
+        }
+    }
+
+    /**
+     * Reports the result of a permission request to every request of the prompt, each one
+     * classified on its own permissions. Requests whose handlers want to take the default action
+     * for blocked permissions stay attached to the prompt.
+     *
+     * @return true if at least one handler wants the user to be sent to settings.
+     */
+    static boolean dispatchResult(Context context, Prompt prompt, PermissionResult result) {
+        List<Request> toSettings = new ArrayList<>();
+        for (Request request : detach(prompt)) {
+            PermissionResult own = result.restrict(request.permissions);
+            if (!own.denied.isEmpty() && own.denied.equals(own.blocked)
+                    && request.future.onBlocked(context, own.getBlocked())) {
+                toSettings.add(request);
+            } else {
+                request.future.complete(own);
+            }
+        }
+        synchronized (RequestBroker.class) {
+            prompt.requests.addAll(toSettings);
+        }
+        return !toSettings.isEmpty();
+    }
+
+    private static synchronized List<Request> detach(Prompt prompt) {
+        List<Request> requests = new ArrayList<>(prompt.requests);
+        prompt.requests.clear();
+        return requests;
+    }
+
+    private static boolean isGranted(Context context, PermissionSet permissions) {
+        for (String permission : permissions) {
+            if (PermissionCache.checkSelfPermission(context, permission)
+                    != PackageManager.PERMISSION_GRANTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void launch(final Context context, final Prompt prompt) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    launch(context, prompt);
+                }
+            });
+            return;
+        }
+        if (context instanceof PermissionsActivity
+                && ((PermissionsActivity) context).offer(prompt)) {
+            return;
+        }
+        if (prompt.options != null && prompt.options.requestInCallerActivity
+                && context instanceof Activity && !(context instanceof PermissionsActivity)
+                && PermissionsFragment.attach((Activity) context, prompt)) {
+            return;
+        }
+        Intent intent = new Intent(context, PermissionsActivity.class)
+                .putExtra(PermissionsActivity.EXTRA_REQUEST, prompt.request);
+        if ((prompt.options != null && prompt.options.createNewTask)
+                || !(context instanceof Activity)) {
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        }
+        try {
+            context.startActivity(intent);
+        } catch (RuntimeException e) {
+            synchronized (RequestBroker.class) {
+                if (activePrompt == prompt) activePrompt = null;
+            }
+            throw e;
+        }
+    }
+
+}
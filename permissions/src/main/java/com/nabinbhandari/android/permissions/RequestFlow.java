@@ -0,0 +1,531 @@
+package com.nabinbhandari.android.permissions;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.Settings;
+import android.text.TextUtils;
+
+/**
+ * The permission request flow for a single prompt: rationale dialog, system permission request,
+ * result classification and the round-trip through settings. The flow is independent of the
+ * component which hosts it, which is either {@link PermissionsActivity} or a
+ * {@link PermissionsFragment} attached to the caller's activity.
+ * <p>
+ * The stages of a staged request are run one after the other: the next stage is requested
+ * directly from the result of the previous one, so that the whole request is served by a single
+ * host.
+ * <p>
+ * Special accesses (see {@link SpecialAccessChecker}) can't be requested via the system dialog,
+ * so once the runtime permissions of a stage have been granted, the user is taken to the
+ * settings screen of each denied special access in turn.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+class RequestFlow {
+
+    static final int RC_SETTINGS = 6739;
+    static final int RC_PERMISSION = 6937;
+    static final int RC_SPECIAL_ACCESS = 6793;
+
+    private static final int STATE_CHECKING = 0;
+    private static final int STATE_RATIONALE = 1;
+    private static final int STATE_REQUESTING = 2;
+    private static final int STATE_SETTINGS_PROMPT = 3;
+    private static final int STATE_IN_SETTINGS = 4;
+    private static final int STATE_SPECIAL_ACCESS = 5;
+
+    private static final String KEY_STATE = "flow_state";
+    private static final String KEY_STAGE = "flow_stage";
+    private static final String KEY_DENIED = "flow_denied";
+    private static final String KEY_NO_RATIONALE = "flow_no_rationale";
+    private static final String KEY_REQUEST_IDS = "flow_request_ids";
+
+    /**
+     * The component hosting the flow.
+     */
+    interface Host {
+
+        /**
+         * @return the activity used for showing dialogs and checking permissions.
+         */
+        Activity getActivity();
+
+        void requestPermissions(String[] permissions, int requestCode);
+
+        boolean shouldShowRequestPermissionRationale(String permission);
+
+        void startActivityForResult(Intent intent, int requestCode);
+
+        /**
+         * Removes the host once the flow is over.
+         */
+        void finishHost();
+    }
+
+    private final Host host;
+    private final RequestBroker.Prompt prompt;
+    private final PermissionRequest request;
+    private final Permissions.Options options;
+    private PermissionSet deniedPermissions = PermissionSet.EMPTY;
+    private PermissionSet noRationaleSet = PermissionSet.EMPTY;
+    private int stageIndex;
+    private int state = STATE_CHECKING;
+    private boolean finished;
+
+    RequestFlow(Host host, RequestBroker.Prompt prompt, PermissionRequest request) {
+        this.host = host;
+        this.prompt = prompt;
+        this.request = request;
+        this.options = request.getOptions();
+        prompt.flow = this;
+    }
+
+    void start() {
+        phase(PermissionMetricsListener.PHASE_HOST_CREATED);
+        if (RequestBroker.isAborted(prompt)) {
+            abort();
+            return;
+        }
+        if (request.settingsOnly) {
+            if (collectDenied(request.permissions)) {
+                grant();
+            } else {
+                sendToSettings();
+            }
+            return;
+        }
+        startStage(0);
+    }
+
+    /**
+     * Saves the state of the flow, so that it can be resumed where it was if the host is
+     * recreated, even in a new process.
+     */
+    void saveState(Bundle outState) {
+        outState.putParcelable(PermissionsActivity.EXTRA_REQUEST, request);
+        outState.putInt(KEY_STATE, state);
+        outState.putInt(KEY_STAGE, stageIndex);
+        outState.putStringArray(KEY_DENIED, deniedPermissions.toArray());
+        outState.putStringArray(KEY_NO_RATIONALE, noRationaleSet.toArray());
+        outState.putIntArray(KEY_REQUEST_IDS, RequestBroker.getRequestIds(prompt));
+    }
+
+    /**
+     * @return the request saved via {@link #saveState(Bundle)}, or null.
+     */
+    @SuppressWarnings("deprecation")
+    static PermissionRequest getSavedRequest(Bundle savedState) {
+        if (savedState == null) return null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            return savedState.getParcelable(PermissionsActivity.EXTRA_REQUEST,
+                    PermissionRequest.class);
+        }
+        return savedState.getParcelable(PermissionsActivity.EXTRA_REQUEST);
+    }
+
+    /**
+     * Returns the prompt of the given saved request. If the process has been restarted since the
+     * state was saved, the prompt is restored.
+     *
+     * @return the prompt, or null if the request is no longer pending.
+     */
+    static RequestBroker.Prompt getPrompt(PermissionRequest request, Bundle savedState) {
+        RequestBroker.Prompt prompt = RequestBroker.getPrompt(request.id);
+        if (prompt == null && savedState != null && savedState.containsKey(KEY_REQUEST_IDS)) {
+            prompt = RequestBroker.restore(request, savedState.getIntArray(KEY_REQUEST_IDS));
+        }
+        return prompt;
+    }
+
+    /**
+     * Resumes the flow from the state saved via {@link #saveState(Bundle)}, without repeating
+     * the steps which have already been done.
+     */
+    void resume(Bundle savedState) {
+        if (!savedState.containsKey(KEY_STATE)) {
+            start();
+            return;
+        }
+        if (RequestBroker.isAborted(prompt)) {
+            abort();
+            return;
+        }
+        ForegroundTracker.register(host.getActivity());
+        Permissions.log("Resuming request.");
+        state = savedState.getInt(KEY_STATE);
+        stageIndex = savedState.getInt(KEY_STAGE);
+        deniedPermissions = PermissionSet.of(savedState.getStringArray(KEY_DENIED));
+        noRationaleSet = PermissionSet.of(savedState.getStringArray(KEY_NO_RATIONALE));
+        switch (state) {
+            case STATE_RATIONALE:
+                // Dialogs don't survive the host, so it is shown again.
+                showRationale(request.rationales[stageIndex]);
+                break;
+            case STATE_SETTINGS_PROMPT:
+                sendToSettings();
+                break;
+            case STATE_REQUESTING:
+            case STATE_IN_SETTINGS:
+            case STATE_SPECIAL_ACCESS:
+                // The result will be delivered to the recreated host.
+                break;
+            default:
+                start();
+        }
+    }
+
+    /**
+     * Starts the given stage, skipping the stages which have already been granted.
+     */
+    private void startStage(int index) {
+        while (index < request.stages.length && collectDenied(request.stages[index])) {
+            index++;
+        }
+        if (index == request.stages.length) {
+            grant();
+            return;
+        }
+        stageIndex = index;
+        String rationale = request.rationales[index];
+        if (noRationaleSet.equals(deniedPermissions) || TextUtils.isEmpty(rationale)) {
+            Permissions.log("No rationale.");
+            requestPermissions();
+        } else {
+            Permissions.log("Show rationale.");
+            showRationale(rationale);
+        }
+    }
+
+    /**
+     * Collects the denied permissions among the given ones, along with those for which no
+     * rationale is to be shown.
+     *
+     * @return true if all of the given permissions have been granted.
+     */
+    private boolean collectDenied(PermissionSet permissions) {
+        Activity activity = host.getActivity();
+        PermissionSet.Builder denied = new PermissionSet.Builder();
+        PermissionSet.Builder noRationale = new PermissionSet.Builder();
+        for (String permission : permissions) {
+            if (PermissionCache.checkSelfPermission(activity, permission)
+                    != PackageManager.PERMISSION_GRANTED) {
+                denied.add(permission);
+                // The rationale of a special access is shown before going to its settings.
+                if (Permissions.getChecker(permission) == null
+                        && !host.shouldShowRequestPermissionRationale(permission)) {
+                    noRationale.add(permission);
+                }
+            }
+        }
+        deniedPermissions = denied.build();
+        noRationaleSet = noRationale.build();
+        return deniedPermissions.isEmpty();
+    }
+
+    /**
+     * @return the permissions of the stages after the current one which have not been granted.
+     */
+    private PermissionSet remainingDenied() {
+        Activity activity = host.getActivity();
+        PermissionSet.Builder denied = new PermissionSet.Builder();
+        for (int i = stageIndex + 1; i < request.stages.length; i++) {
+            for (String permission : request.stages[i]) {
+                if (PermissionCache.checkSelfPermission(activity, permission)
+                        != PackageManager.PERMISSION_GRANTED) {
+                    denied.add(permission);
+                }
+            }
+        }
+        return denied.build();
+    }
+
+    private void showRationale(String rationale) {
+        state = STATE_RATIONALE;
+        renderer().showRationale(host.getActivity(), options.rationaleDialogTitle, rationale,
+                new RationaleRenderer.Callback() {
+                    @Override
+                    public void onResult(boolean accepted) {
+                        if (finished) return;
+                        phase(PermissionMetricsListener.PHASE_RATIONALE_ANSWERED);
+                        if (accepted) {
+                            requestPermissions();
+                        } else {
+                            deny();
+                        }
+                    }
+                });
+        phase(PermissionMetricsListener.PHASE_RATIONALE_SHOWN);
+    }
+
+    /**
+     * @return the renderer set in the options of the prompt, which (unlike the options of the
+     * parcelled request) is the instance given by the caller.
+     */
+    private RationaleRenderer renderer() {
+        Permissions.Options options = prompt.options;
+        return options != null && options.rationaleRenderer != null ?
+                options.rationaleRenderer : DialogRationaleRenderer.INSTANCE;
+    }
+
+    /**
+     * @return the given permissions which are special accesses.
+     */
+    private static PermissionSet specialAccess(PermissionSet permissions) {
+        PermissionSet.Builder special = new PermissionSet.Builder();
+        for (String permission : permissions) {
+            if (Permissions.getChecker(permission) != null) {
+                special.add(permission);
+            }
+        }
+        return special.build();
+    }
+
+    private void requestPermissions() {
+        PermissionSet runtime = deniedPermissions.minus(specialAccess(deniedPermissions));
+        if (runtime.isEmpty()) {
+            requestSpecialAccess();
+            return;
+        }
+        state = STATE_REQUESTING;
+        phase(PermissionMetricsListener.PHASE_REQUEST_ISSUED);
+        host.requestPermissions(runtime.toArray(), RC_PERMISSION);
+    }
+
+    /**
+     * Takes the user to the settings screen of the first denied special access. The denied
+     * permissions are all special accesses at this point.
+     */
+    private void requestSpecialAccess() {
+        Activity activity = host.getActivity();
+        String permission = deniedPermissions.iterator().next();
+        Intent intent = Permissions.getChecker(permission).getSettingsIntent(activity, permission);
+        Permissions.log("Requesting special access.");
+        phase(PermissionMetricsListener.PHASE_SETTINGS_OPENED);
+        state = STATE_SPECIAL_ACCESS;
+        try {
+            host.startActivityForResult(intent, RC_SPECIAL_ACCESS);
+        } catch (ActivityNotFoundException e) {
+            // Not available on some devices, the details of the app are shown instead.
+            host.startActivityForResult(new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS,
+                    Uri.fromParts("package", activity.getPackageName(), null)), RC_SPECIAL_ACCESS);
+        }
+    }
+
+    void onRequestPermissionsResult(String[] permissions, int[] grantResults) {
+        // The answer comes too late if the request has been cancelled or has timed out.
+        if (finished) return;
+        phase(PermissionMetricsListener.PHASE_RESULT_RECEIVED);
+        if (grantResults.length == 0) {
+            deny();
+        } else {
+            // The special accesses haven't been requested yet; they are neither granted nor
+            // blocked.
+            PermissionSet special = specialAccess(deniedPermissions);
+            PermissionSet.Builder denied = new PermissionSet.Builder().addAll(special);
+            PermissionSet.Builder rationale = new PermissionSet.Builder().addAll(special);
+            for (int i = 0; i < grantResults.length; i++) {
+                if (grantResults[i] != PackageManager.PERMISSION_GRANTED) {
+                    denied.add(permissions[i]);
+                    if (host.shouldShowRequestPermissionRationale(permissions[i])) {
+                        rationale.add(permissions[i]);
+                    }
+                }
+            }
+            PermissionSet deniedSet = denied.build();
+            if (!special.isEmpty() && deniedSet.equals(special)) {
+                Permissions.log("Runtime permissions allowed.");
+                deniedPermissions = special;
+                requestSpecialAccess();
+                return;
+            }
+            PermissionResult result = PermissionResult.classify(deniedPermissions, deniedSet,
+                    rationale.build(), noRationaleSet);
+            DecisionStore.record(host.getActivity(), result);
+            if (result.isGranted() && stageIndex + 1 < request.stages.length) {
+                Permissions.log("Stage allowed.");
+                startStage(stageIndex + 1);
+            } else if (result.isGranted()) {
+                Permissions.log("Just allowed.");
+                grant();
+            } else {
+                Permissions.log("Denied.");
+                result = withRemainingStages(result);
+                deniedPermissions = result.getDenied();
+                if (RequestBroker.dispatchResult(host.getActivity().getApplicationContext(),
+                        prompt, result)) {
+                    sendToSettings();
+                } else {
+                    finish();
+                }
+            }
+        }
+    }
+
+    private void sendToSettings() {
+        if (!options.sendBlockedToSettings) {
+            deny();
+            return;
+        }
+        Permissions.log("Ask to go to settings.");
+        state = STATE_SETTINGS_PROMPT;
+        renderer().showSettingsPrompt(host.getActivity(), options.settingsDialogTitle,
+                options.settingsDialogMessage, options.settingsText,
+                new RationaleRenderer.Callback() {
+                    @Override
+                    @SuppressWarnings("InlinedAPI")
+                    public void onResult(boolean accepted) {
+                        if (finished) return;
+                        if (!accepted) {
+                            deny();
+                            return;
+                        }
+                        Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS,
+                                Uri.fromParts("package",
+                                        host.getActivity().getPackageName(), null));
+                        phase(PermissionMetricsListener.PHASE_SETTINGS_OPENED);
+                        state = STATE_IN_SETTINGS;
+                        host.startActivityForResult(intent, RC_SETTINGS);
+                    }
+                });
+    }
+
+    /**
+     * The later stages can't be requested any more once a stage is denied, so they are reported
+     * as denied along with it.
+     */
+    private PermissionResult withRemainingStages(PermissionResult result) {
+        PermissionSet remaining = remainingDenied();
+        if (remaining.isEmpty()) return result;
+        return new PermissionResult(result.requested.union(remaining),
+                result.denied.union(remaining), result.blocked, result.justBlocked);
+    }
+
+    void onActivityResult(int requestCode) {
+        if (finished) return;
+        if (requestCode == RC_SETTINGS) {
+            phase(PermissionMetricsListener.PHASE_SETTINGS_RETURNED);
+            Permissions.log("Returned from settings.");
+            onSettingsReturned();
+        } else if (requestCode == RC_SPECIAL_ACCESS) {
+            phase(PermissionMetricsListener.PHASE_SETTINGS_RETURNED);
+            Permissions.log("Returned from special access settings.");
+            onSpecialAccessReturned();
+        } else {
+            finish();
+        }
+    }
+
+    /**
+     * Re-evaluates the permissions which were denied before going to settings, within the same
+     * host: the requests are dispatched directly if nothing more can be asked, otherwise the
+     * permissions which can be requested again are requested.
+     */
+    private void onSettingsReturned() {
+        PermissionCache.invalidate();
+        PermissionWatcher.refresh(host.getActivity());
+        PermissionSet previous = deniedPermissions;
+        if (collectDenied(previous)
+                || !deniedPermissions.intersects(request.stages[stageIndex])) {
+            Permissions.log("Allowed from settings.");
+            startStage(stageIndex + 1);
+            return;
+        }
+        collectDenied(previous.intersect(request.stages[stageIndex]));
+        if (!noRationaleSet.equals(deniedPermissions)) {
+            // Some of the permissions have been reset to be asked again.
+            Permissions.log("Requesting again.");
+            requestPermissions();
+            return;
+        }
+        Permissions.log("Still blocked.");
+        PermissionResult result = withRemainingStages(PermissionResult.classify(
+                previous, deniedPermissions, PermissionSet.EMPTY, deniedPermissions));
+        deniedPermissions = result.getDenied();
+        finish();
+        RequestBroker.dispatch(prompt, result);
+    }
+
+    /**
+     * Moves on to the next denied special access if the user has granted the one asked for, and
+     * reports the stage as denied otherwise.
+     */
+    private void onSpecialAccessReturned() {
+        PermissionCache.invalidate();
+        PermissionWatcher.refresh(host.getActivity());
+        PermissionSet previous = deniedPermissions;
+        if (collectDenied(previous)) {
+            Permissions.log("Special access allowed.");
+            startStage(stageIndex + 1);
+        } else if (!deniedPermissions.equals(previous)) {
+            requestSpecialAccess();
+        } else {
+            Permissions.log("Special access denied.");
+            PermissionResult result = withRemainingStages(
+                    PermissionResult.denied(previous, deniedPermissions));
+            deniedPermissions = result.getDenied();
+            finish();
+            RequestBroker.dispatch(prompt, result);
+        }
+    }
+
+    /**
+     * Called when the host is being destroyed.
+     *
+     * @param finishing false if the host is only being recreated, e.g. for a configuration
+     *                  change.
+     */
+    void onHostDestroyed(boolean finishing) {
+        if (finishing && !finished) {
+            // Make sure that the queued requests are not stuck behind this one.
+            finished = true;
+            Activity activity = host.getActivity();
+            // The requests made from a finishing caller hosting the flow are dropped instead.
+            RequestBroker.dropOwned(prompt, activity);
+            RequestBroker.dispatchDenied(prompt,
+                    deniedPermissions.union(remainingDenied()));
+            RequestBroker.complete(activity.getApplicationContext(), prompt);
+        }
+    }
+
+    private void phase(int phase) {
+        RequestBroker.phase(prompt, phase);
+    }
+
+    private void finish() {
+        finished = true;
+        PermissionCache.invalidate();
+        Activity activity = host.getActivity();
+        PermissionWatcher.refresh(activity);
+        // The next prompt may be handed over to the host, so the host is released afterwards.
+        RequestBroker.complete(activity, prompt);
+        host.finishHost();
+    }
+
+    /**
+     * Closes the flow of a prompt whose requests have all been cancelled or have timed out: the
+     * dialogs are dismissed and the host is removed, without dispatching anything.
+     */
+    void abort() {
+        if (finished) return;
+        Permissions.log("Closing abandoned request.");
+        renderer().dismiss(host.getActivity());
+        finish();
+    }
+
+    private void deny() {
+        PermissionSet denied = deniedPermissions.union(remainingDenied());
+        finish();
+        RequestBroker.dispatchDenied(prompt, denied);
+    }
+
+    private void grant() {
+        finish();
+        RequestBroker.dispatchGranted(prompt);
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.nabinbhandari.android.permissions;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a permission request within a type annotated with {@link PermissionRequests}. The
+ * name of the generated descriptor is the name of the method in upper snake case.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface RequestSpec {
+
+    /**
+     * @return the permissions to request.
+     */
+    String[] value();
+
+    /**
+     * @return the name of the string resource of the rationale, e.g. "camera_rationale", or an
+     * empty string for none. A name is taken rather than an id since resource ids are not
+     * constants in library modules and with recent versions of the android gradle plugin.
+     */
+    String rationale() default "";
+
+    /**
+     * @see Permissions.Options#sendDontAskAgainToSettings(boolean)
+     */
+    boolean sendBlockedToSettings() default true;
+
+    /**
+     * @see Permissions.Options#setRequestInCallerActivity(boolean)
+     */
+    boolean requestInCallerActivity() default false;
+
+    /**
+     * @see Permissions.Options#setResolveKnownBlocked(boolean)
+     */
+    boolean resolveKnownBlocked() default false;
+
+}
@@ -0,0 +1,373 @@
+package com.nabinbhandari.android.permissions;
+
+import android.annotation.TargetApi;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Parcel;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.ResultReceiver;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes permission requests of multi-process apps through {@link PermissionBrokerService}, which
+ * runs in the main process. Identical requests from different processes are served by a single
+ * prompt, the result is delivered to every requesting process, and each of them updates its
+ * {@link PermissionCache} from the grant states seen by the main process.
+ * <p>
+ * Results cross the process boundary as permission names, since the ids of
+ * {@link PermissionSet} are local to each process. Each request is identified across processes
+ * by a token made of the id of the requesting process and the id of the request in that
+ * process, so that it can be cancelled. Requests are only served by the same prompt if they are
+ * identical in every respect but their ids: stages, rationales, options and settings-only flag.
+ *
+ * @see Permissions.Options#setUseSharedBroker(boolean)
+ */
+@TargetApi(Build.VERSION_CODES.M)
+final class SharedBroker {
+
+    static final String EXTRA_RECEIVER = "receiver";
+    static final String EXTRA_TOKEN = "token";
+    static final String EXTRA_CANCEL = "cancel";
+
+    private static final int RESULT_OK = 0;
+    private static final int RESULT_FAILED = 1;
+    private static final String KEY_REQUESTED = "requested";
+    private static final String KEY_DENIED = "denied";
+    private static final String KEY_BLOCKED = "blocked";
+    private static final String KEY_JUST_BLOCKED = "just_blocked";
+    private static final String KEY_TIMED_OUT = "timed_out";
+
+    /**
+     * Delivers requests, and their cancellations, to the broker.
+     */
+    interface Channel {
+        void send(Context context, PermissionRequest request, String token,
+                  ResultReceiver receiver);
+
+        void cancel(Context context, String token, ResultReceiver receiver);
+    }
+
+    /**
+     * Binds to {@link PermissionBrokerService} in the main process. The binding is held until
+     * the result has been received or the request has been cancelled. If the main process dies
+     * in the meantime, the request fails, as its prompt is gone with it.
+     */
+    static final Channel SERVICE_CHANNEL = new Channel() {
+        @Override
+        public void send(Context context, PermissionRequest request, String token,
+                         final ResultReceiver receiver) {
+            final Context appContext = context.getApplicationContext();
+            final Bundle data = new Bundle();
+            data.putParcelable(PermissionsActivity.EXTRA_REQUEST, request);
+            data.putParcelable(EXTRA_RECEIVER, receiver);
+            data.putString(EXTRA_TOKEN, token);
+            ServiceConnection connection = new ServiceConnection() {
+                @Override
+                public void onServiceConnected(ComponentName name, IBinder service) {
+                    Messenger messenger = new Messenger(service);
+                    if (receiver instanceof ClientReceiver
+                            && !((ClientReceiver) receiver).onConnected(messenger)) {
+                        // Cancelled while binding.
+                        return;
+                    }
+                    Message message = Message.obtain();
+                    message.setData(data);
+                    try {
+                        messenger.send(message);
+                    } catch (RemoteException e) {
+                        receiver.send(RESULT_FAILED, null);
+                    }
+                }
+
+                @Override
+                public void onServiceDisconnected(ComponentName name) {
+                    Permissions.log("Shared broker disconnected.");
+                    receiver.send(RESULT_FAILED, null);
+                }
+            };
+            if (receiver instanceof ClientReceiver) {
+                ((ClientReceiver) receiver).setConnection(connection);
+            }
+            if (!appContext.bindService(new Intent(appContext, PermissionBrokerService.class),
+                    connection, Context.BIND_AUTO_CREATE)) {
+                receiver.send(RESULT_FAILED, null);
+            }
+        }
+
+        @Override
+        public void cancel(Context context, String token, ResultReceiver receiver) {
+            if (!(receiver instanceof ClientReceiver)) return;
+            ClientReceiver client = (ClientReceiver) receiver;
+            Messenger messenger = client.onCancelled();
+            if (messenger != null) {
+                Bundle data = new Bundle();
+                data.putString(EXTRA_CANCEL, token);
+                Message message = Message.obtain();
+                message.setData(data);
+                try {
+                    messenger.send(message);
+                } catch (RemoteException ignored) {
+                    // The main process is gone, and its prompt along with it.
+                }
+            }
+            client.unbind();
+        }
+    };
+
+    /**
+     * Submits requests straight to the broker of this process, standing in for the service,
+     * e.g. in tests.
+     */
+    static final Channel LOCAL_CHANNEL = new Channel() {
+        @Override
+        public void send(Context context, PermissionRequest request, String token,
+                         ResultReceiver receiver) {
+            submit(context.getApplicationContext(), request, token, receiver);
+        }
+
+        @Override
+        public void cancel(Context context, String token, ResultReceiver receiver) {
+            SharedBroker.cancel(token);
+        }
+    };
+
+    /**
+     * The requests of other processes which are served by a single request of the main process.
+     */
+    private static final class Pending {
+        // Keyed by the tokens of the requests.
+        final Map<String, ResultReceiver> receivers = new LinkedHashMap<>();
+        final PermissionFuture future;
+
+        Pending(PermissionFuture future) {
+            this.future = future;
+        }
+    }
+
+    private static volatile Channel channel = SERVICE_CHANNEL;
+    // Requests waiting for a prompt, keyed by their contents (main process only).
+    private static final Map<ByteBuffer, Pending> pending = new HashMap<>();
+    // Requests sent by this process which are waiting for their result, keyed by their ids.
+    private static final Map<Integer, ClientReceiver> clients = new ConcurrentHashMap<>();
+
+    private SharedBroker() {
+    }
+
+    static void setChannel(Channel channel) {
+        SharedBroker.channel = channel == null ? SERVICE_CHANNEL : channel;
+    }
+
+    /**
+     * Sends the request to the broker, completing the given future with its result. The future
+     * gets an id of this process, which is used to cancel the request in the main process.
+     */
+    static void send(Context context, PermissionRequest request, PermissionFuture future) {
+        int requestId = RequestBroker.nextId();
+        future.requestId = requestId;
+        ClientReceiver receiver = new ClientReceiver(context, request, future);
+        clients.put(requestId, receiver);
+        channel.send(context, request, receiver.token, receiver);
+    }
+
+    /**
+     * Cancels the request of this process with the given id, if it has been sent to the broker
+     * and is still waiting for its result.
+     */
+    static void cancel(int requestId) {
+        ClientReceiver receiver = clients.remove(requestId);
+        if (receiver != null) {
+            Permissions.log("Cancelling request of the shared broker.");
+            channel.cancel(receiver.appContext, receiver.token, receiver);
+        }
+    }
+
+    /**
+     * Serves a request received by the broker. Identical requests which are already pending
+     * join the pending prompt.
+     */
+    static void submit(final Context context, PermissionRequest request, String token,
+                       ResultReceiver receiver) {
+        final ByteBuffer key = keyOf(request);
+        PermissionFuture future = new PermissionFuture(Permissions.DIRECT_EXECUTOR,
+                new PermissionCallback() {
+                    @Override
+                    public void onResult(PermissionResult result) {
+                        Pending entry;
+                        synchronized (pending) {
+                            entry = pending.remove(key);
+                        }
+                        if (entry == null) return;
+                        Bundle data = new Bundle();
+                        data.putStringArray(KEY_REQUESTED, result.getRequested().toArray());
+                        data.putStringArray(KEY_DENIED, result.getDenied().toArray());
+                        data.putStringArray(KEY_BLOCKED, result.getBlocked().toArray());
+                        data.putStringArray(KEY_JUST_BLOCKED, result.getJustBlocked().toArray());
+                        data.putBoolean(KEY_TIMED_OUT, result.timedOut);
+                        for (ResultReceiver receiver : entry.receivers.values()) {
+                            receiver.send(RESULT_OK, data);
+                        }
+                    }
+                });
+        synchronized (pending) {
+            Pending entry = pending.get(key);
+            if (entry != null) {
+                Permissions.log("Joined request of another process.");
+                entry.receivers.put(token, receiver);
+                return;
+            }
+            entry = new Pending(future);
+            entry.receivers.put(token, receiver);
+            pending.put(key, entry);
+        }
+        // Cancelled already if the only requesting process has given up in the meantime.
+        if (!future.isCancelled()) {
+            Permissions.submit(context, request.withId(0, request.settingsOnly), future);
+        }
+    }
+
+    /**
+     * @return the contents of the request but its id, as parcelled, so that requests which
+     * differ in any of their rationales or options are not joined.
+     */
+    private static ByteBuffer keyOf(PermissionRequest request) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            request.withId(0, request.settingsOnly).writeToParcel(parcel, 0);
+            return ByteBuffer.wrap(parcel.marshall());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Removes the request of another process with the given token. The request of the main
+     * process is cancelled once none of the requests it serves are left.
+     */
+    static void cancel(String token) {
+        PermissionFuture abandoned = null;
+        synchronized (pending) {
+            Iterator<Pending> iterator = pending.values().iterator();
+            while (iterator.hasNext()) {
+                Pending entry = iterator.next();
+                if (entry.receivers.remove(token) == null) continue;
+                if (entry.receivers.isEmpty()) {
+                    iterator.remove();
+                    abandoned = entry.future;
+                }
+                break;
+            }
+        }
+        if (abandoned != null) {
+            abandoned.cancel(true);
+        }
+    }
+
+    /**
+     * @return the number of requests of other processes waiting for a prompt (main process only).
+     */
+    static int getPendingCount() {
+        int count = 0;
+        synchronized (pending) {
+            for (Pending entry : pending.values()) {
+                count += entry.receivers.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Receives the result in the requesting process.
+     */
+    private static final class ClientReceiver extends ResultReceiver {
+
+        final Context appContext;
+        final String token;
+        private final PermissionSet permissions;
+        private final PermissionFuture future;
+        private ServiceConnection connection;
+        private Messenger service;
+        private boolean cancelled;
+
+        ClientReceiver(Context context, PermissionRequest request, PermissionFuture future) {
+            super(new Handler(Looper.getMainLooper()));
+            this.appContext = context.getApplicationContext();
+            this.token = Process.myPid() + ":" + future.requestId;
+            this.permissions = request.permissions;
+            this.future = future;
+        }
+
+        synchronized void setConnection(ServiceConnection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * @return false if the request has been cancelled in the meantime, in which case it is
+         * not to be sent.
+         */
+        synchronized boolean onConnected(Messenger service) {
+            this.service = service;
+            return !cancelled;
+        }
+
+        /**
+         * @return the messenger of the service, or null if the request hasn't been sent yet (it
+         * won't be).
+         */
+        synchronized Messenger onCancelled() {
+            cancelled = true;
+            return service;
+        }
+
+        void unbind() {
+            ServiceConnection connection;
+            synchronized (this) {
+                connection = this.connection;
+                this.connection = null;
+            }
+            if (connection != null) {
+                appContext.unbindService(connection);
+            }
+        }
+
+        @Override
+        protected void onReceiveResult(int resultCode, Bundle data) {
+            clients.remove(future.requestId);
+            unbind();
+            if (resultCode != RESULT_OK || data == null) {
+                Permissions.log("Shared broker unavailable.");
+                future.complete(PermissionResult.denied(permissions, permissions));
+                return;
+            }
+            PermissionSet requested = PermissionSet.of(data.getStringArray(KEY_REQUESTED));
+            PermissionSet denied = PermissionSet.of(data.getStringArray(KEY_DENIED));
+            // Share the grant states seen by the main process with this process.
+            for (String permission : requested) {
+                PermissionCache.put(permission, denied.contains(permission) ?
+                        PackageManager.PERMISSION_DENIED : PackageManager.PERMISSION_GRANTED);
+            }
+            PermissionWatcher.refresh(appContext);
+            future.complete(new PermissionResult(requested, denied,
+                    PermissionSet.of(data.getStringArray(KEY_BLOCKED)),
+                    PermissionSet.of(data.getStringArray(KEY_JUST_BLOCKED)),
+                    data.getBoolean(KEY_TIMED_OUT)));
+        }
+    }
+
+}
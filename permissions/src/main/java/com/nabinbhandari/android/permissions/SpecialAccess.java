@@ -0,0 +1,154 @@
+package com.nabinbhandari.android.permissions;
+
+import android.Manifest;
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Process;
+import android.provider.Settings;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The built-in {@link SpecialAccessChecker}s. Each one asks the cheapest API which tells the
+ * state of its special access, and opens the settings screen dedicated to it.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+final class SpecialAccess {
+
+    // Not exposed as a constant by the framework.
+    private static final String ENABLED_NOTIFICATION_LISTENERS = "enabled_notification_listeners";
+
+    private SpecialAccess() {
+    }
+
+    /**
+     * A special access which applies from the given version of android on. Below that version,
+     * it is reported as granted.
+     */
+    private abstract static class Checker implements SpecialAccessChecker {
+
+        private final int minSdk;
+        private final String action;
+        private final boolean withPackage;
+        private final String appOp;
+
+        /**
+         * @param withPackage true if the settings screen is to be opened for this app, rather
+         *                    than listing all of the apps.
+         */
+        Checker(int minSdk, String action, boolean withPackage, String appOp) {
+            this.minSdk = minSdk;
+            this.action = action;
+            this.withPackage = withPackage;
+            this.appOp = appOp;
+        }
+
+        abstract boolean check(Context context);
+
+        @Override
+        public boolean isGranted(Context context, String permission) {
+            return Build.VERSION.SDK_INT < minSdk || check(context);
+        }
+
+        @Override
+        public Intent getSettingsIntent(Context context, String permission) {
+            return withPackage ? new Intent(action,
+                    Uri.fromParts("package", context.getPackageName(), null)) : new Intent(action);
+        }
+
+        @Override
+        public String getAppOp(String permission) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? appOp : null;
+        }
+    }
+
+    /**
+     * @return the built-in checkers, keyed by permission.
+     */
+    static Map<String, SpecialAccessChecker> defaults() {
+        Map<String, SpecialAccessChecker> checkers = new HashMap<>();
+        checkers.put(Manifest.permission.SYSTEM_ALERT_WINDOW, new Checker(Build.VERSION_CODES.M,
+                Settings.ACTION_MANAGE_OVERLAY_PERMISSION, true,
+                AppOpsManager.OPSTR_SYSTEM_ALERT_WINDOW) {
+            @Override
+            boolean check(Context context) {
+                return Settings.canDrawOverlays(context);
+            }
+        });
+        checkers.put(Manifest.permission.WRITE_SETTINGS, new Checker(Build.VERSION_CODES.M,
+                Settings.ACTION_MANAGE_WRITE_SETTINGS, true,
+                AppOpsManager.OPSTR_WRITE_SETTINGS) {
+            @Override
+            boolean check(Context context) {
+                return Settings.System.canWrite(context);
+            }
+        });
+        checkers.put(Manifest.permission.MANAGE_EXTERNAL_STORAGE, new Checker(
+                Build.VERSION_CODES.R, Settings.ACTION_MANAGE_APP_ALL_FILES_ACCESS_PERMISSION, true,
+                AppOpsManager.OPSTR_MANAGE_EXTERNAL_STORAGE) {
+            @Override
+            @TargetApi(Build.VERSION_CODES.R)
+            boolean check(Context context) {
+                return Environment.isExternalStorageManager();
+            }
+        });
+        checkers.put(Manifest.permission.SCHEDULE_EXACT_ALARM, new Checker(Build.VERSION_CODES.S,
+                Settings.ACTION_REQUEST_SCHEDULE_EXACT_ALARM, true, null) {
+            @Override
+            @TargetApi(Build.VERSION_CODES.S)
+            boolean check(Context context) {
+                AlarmManager alarmManager =
+                        (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+                return alarmManager == null || alarmManager.canScheduleExactAlarms();
+            }
+        });
+        checkers.put(Manifest.permission.PACKAGE_USAGE_STATS, new Checker(
+                Build.VERSION_CODES.LOLLIPOP, Settings.ACTION_USAGE_ACCESS_SETTINGS, false,
+                AppOpsManager.OPSTR_GET_USAGE_STATS) {
+            @Override
+            @SuppressWarnings("deprecation")
+            boolean check(Context context) {
+                AppOpsManager appOps =
+                        (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+                if (appOps == null) return false;
+                int mode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ?
+                        appOps.unsafeCheckOpNoThrow(AppOpsManager.OPSTR_GET_USAGE_STATS,
+                                Process.myUid(), context.getPackageName()) :
+                        appOps.checkOpNoThrow(AppOpsManager.OPSTR_GET_USAGE_STATS,
+                                Process.myUid(), context.getPackageName());
+                if (mode == AppOpsManager.MODE_DEFAULT) {
+                    // Not set by the user, so the permission itself decides.
+                    return context.checkSelfPermission(Manifest.permission.PACKAGE_USAGE_STATS)
+                            == PackageManager.PERMISSION_GRANTED;
+                }
+                return mode == AppOpsManager.MODE_ALLOWED;
+            }
+        });
+        checkers.put(Manifest.permission.BIND_NOTIFICATION_LISTENER_SERVICE, new Checker(
+                Build.VERSION_CODES.JELLY_BEAN_MR2, Settings.ACTION_NOTIFICATION_LISTENER_SETTINGS,
+                false, null) {
+            @Override
+            boolean check(Context context) {
+                String listeners = Settings.Secure.getString(context.getContentResolver(),
+                        ENABLED_NOTIFICATION_LISTENERS);
+                if (listeners == null) return false;
+                // A colon separated list of flattened component names.
+                String prefix = context.getPackageName() + "/";
+                for (String listener : listeners.split(":")) {
+                    if (listener.startsWith(prefix)) return true;
+                }
+                return false;
+            }
+        });
+        return checkers;
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.nabinbhandari.android.permissions;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Checks a permission which is not granted via the runtime permission dialog, but by the user in
+ * a settings screen, e.g. the special app accesses such as "display over other apps" or "usage
+ * access". Checkers for the common special accesses are built in; others can be added via
+ * {@link Permissions#registerChecker(String, SpecialAccessChecker)}.
+ * <p>
+ * The grant states are cached like those of runtime permissions. When such a permission is
+ * requested, the user is taken directly to its settings screen instead of the runtime
+ * permission dialog.
+ */
+public interface SpecialAccessChecker {
+
+    /**
+     * @param context    the android context.
+     * @param permission the permission to check.
+     * @return true if the permission has been granted, or if it doesn't apply to the running
+     * version of android.
+     */
+    boolean isGranted(Context context, String permission);
+
+    /**
+     * @param context    the android context.
+     * @param permission the permission to be granted.
+     * @return the intent for the settings screen in which the user can grant the permission.
+     */
+    Intent getSettingsIntent(Context context, String permission);
+
+    /**
+     * @param permission the permission.
+     * @return the name of the app op backing the permission, whose changes are watched to keep
+     * the cached grant state up to date, or null if there is none.
+     */
+    String getAppOp(String permission);
+
+}
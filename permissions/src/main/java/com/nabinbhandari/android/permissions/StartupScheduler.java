@@ -0,0 +1,125 @@
+package com.nabinbhandari.android.permissions;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Tells {@link RequestBroker} when the startup of the app is over, so that the prompts of
+ * deferrable requests (see {@link Permissions.Options#PRIORITY_DEFERRABLE}) made during startup
+ * don't compete with the first frame. Startup is considered over once the main thread is idle
+ * after the first frame of an activity, or {@link #MAX_DEFERRAL_MILLIS} after the start of the
+ * process (or the loading of this class before Android N) for apps which don't show any activity
+ * in the meantime. Requests made after that are not deferred at all.
+ */
+final class StartupScheduler implements Choreographer.FrameCallback, MessageQueue.IdleHandler {
+
+    static final StartupScheduler INSTANCE = new StartupScheduler();
+
+    private static final long MAX_DEFERRAL_MILLIS = 5000L;
+    private static final long START_ELAPSED_MILLIS =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                    ? Process.getStartElapsedRealtime() : SystemClock.elapsedRealtime();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            Permissions.log("No frame drawn, releasing deferred requests.");
+            release();
+        }
+    };
+    // The following fields are accessed from the main thread only.
+    private Context appContext;
+    private boolean activityResumed;
+    private boolean scheduled;
+    private boolean framePosted;
+    private boolean released;
+    private long scheduledNanos;
+
+    private StartupScheduler() {
+    }
+
+    /**
+     * @return true if the startup window is over, even if no frame has been drawn yet.
+     */
+    static boolean isWindowOver() {
+        return SystemClock.elapsedRealtime() - START_ELAPSED_MILLIS >= MAX_DEFERRAL_MILLIS;
+    }
+
+    /**
+     * Starts waiting for the end of startup, if not waiting yet. Called from any thread when a
+     * request is deferred.
+     */
+    void schedule(Context context) {
+        final Context appContext = context.getApplicationContext();
+        // A request made from an activity means that an activity is being shown.
+        final boolean fromActivity = context instanceof Activity;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (fromActivity) activityResumed = true;
+                if (scheduled || released) return;
+                scheduled = true;
+                scheduledNanos = System.nanoTime();
+                StartupScheduler.this.appContext = appContext;
+                ForegroundTracker.register(appContext);
+                long remaining = MAX_DEFERRAL_MILLIS
+                        - (SystemClock.elapsedRealtime() - START_ELAPSED_MILLIS);
+                if (remaining <= 0L) {
+                    Permissions.log("Startup window over, releasing deferred requests.");
+                    release();
+                    return;
+                }
+                handler.postDelayed(timeout, remaining);
+                postFrame();
+            }
+        });
+    }
+
+    /**
+     * Called on the main thread when an activity has been resumed, i.e. is about to draw its
+     * first frame.
+     */
+    void onActivityResumed(Activity activity) {
+        if (activity instanceof PermissionsActivity) return;
+        activityResumed = true;
+        postFrame();
+    }
+
+    private void postFrame() {
+        if (!scheduled || released || framePosted || !activityResumed) return;
+        framePosted = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // The frame is drawn right after the callbacks, the queue goes idle once it is done.
+        Looper.myQueue().addIdleHandler(this);
+    }
+
+    @Override
+    public boolean queueIdle() {
+        release();
+        return false;
+    }
+
+    private void release() {
+        if (released) return;
+        released = true;
+        handler.removeCallbacks(timeout);
+        if (Permissions.isLogging()) {
+            Permissions.log("Startup over, deferred requests held for "
+                    + (System.nanoTime() - scheduledNanos) / 1000000L + " ms.");
+        }
+        RequestBroker.onStartupOver(appContext);
+    }
+
+}
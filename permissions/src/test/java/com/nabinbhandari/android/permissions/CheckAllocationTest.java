@@ -0,0 +1,126 @@
+package com.nabinbhandari.android.permissions;
+
+import android.Manifest;
+import android.content.ContextWrapper;
+import android.content.pm.PackageManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that {@link Permissions#check} allocates nothing when the permissions are granted
+ * already, by counting the bytes allocated by the calling thread.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class CheckAllocationTest {
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 10000;
+    private static final String[] PERMISSIONS = {
+            Manifest.permission.CAMERA,
+            Manifest.permission.RECORD_AUDIO,
+            Manifest.permission.ACCESS_FINE_LOCATION,
+    };
+
+    /**
+     * Grants every permission, and counts the checks which reach it.
+     */
+    private static final class GrantingContext extends ContextWrapper {
+        int checkCount;
+
+        GrantingContext() {
+            super(RuntimeEnvironment.getApplication());
+        }
+
+        @Override
+        public int checkSelfPermission(String permission) {
+            checkCount++;
+            return PackageManager.PERMISSION_GRANTED;
+        }
+    }
+
+    private final PermissionHandler handler = new PermissionHandler() {
+        @Override
+        public void onGranted() {
+            grantedCount++;
+        }
+    };
+    private final PermissionDescriptor descriptor =
+            new PermissionDescriptor(PERMISSIONS, (String) null, null);
+    private com.sun.management.ThreadMXBean threads;
+    private GrantingContext context;
+    private int grantedCount;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        Permissions.disableLogging();
+        PermissionCache.invalidate();
+        context = new GrantingContext();
+    }
+
+    @After
+    public void tearDown() {
+        PermissionCache.invalidate();
+    }
+
+    @Test
+    public void checkOfGrantedPermissionsAllocatesNothing() {
+        for (int i = 0; i < WARMUP; i++) {
+            Permissions.check(context, PERMISSIONS, null, null, handler);
+        }
+        long allocated = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Permissions.check(context, PERMISSIONS, null, null, handler);
+        }
+        allocated = allocatedBytes() - allocated - measurementOverhead();
+
+        assertEquals(WARMUP + ITERATIONS, grantedCount);
+        // The grant states come from the cache after the first check.
+        assertEquals(PERMISSIONS.length, context.checkCount);
+        assertEquals("bytes allocated by " + ITERATIONS + " checks", 0L, Math.max(0L, allocated));
+    }
+
+    @Test
+    public void checkOfGrantedDescriptorAllocatesNothing() {
+        for (int i = 0; i < WARMUP; i++) {
+            Permissions.check(context, descriptor, handler);
+        }
+        long allocated = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Permissions.check(context, descriptor, handler);
+        }
+        allocated = allocatedBytes() - allocated - measurementOverhead();
+
+        assertEquals(WARMUP + ITERATIONS, grantedCount);
+        assertEquals("bytes allocated by " + ITERATIONS + " checks", 0L, Math.max(0L, allocated));
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return the bytes allocated by reading the counter itself.
+     */
+    private long measurementOverhead() {
+        long start = allocatedBytes();
+        return allocatedBytes() - start;
+    }
+
+}
@@ -0,0 +1,372 @@
+package com.nabinbhandari.android.permissions;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowActivity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Fires bursts of concurrent requests for random sets of permissions, half of them via
+ * {@link Permissions#request} from a pool of threads and half of them via {@link Permissions#check}
+ * on the main thread. The prompts are answered with random grant, deny and block outcomes, and
+ * the user randomly follows or declines the prompts to go to settings, where permissions may be
+ * granted or reset to be asked again. Every request must get exactly one callback, and no
+ * request may be retained once all of the prompts are over.
+ * <p>
+ * The p50 and p99 latencies from the submission of a request to its callback are reported. The
+ * seed is part of the report and of the failure messages, so that a failing run can be replayed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class RequestStressTest {
+
+    private static final String[] PERMISSIONS = {Manifest.permission.CALL_PHONE,
+            Manifest.permission.CAMERA, Manifest.permission.ACCESS_FINE_LOCATION,
+            Manifest.permission.READ_CONTACTS};
+    private static final int WAVES = 10;
+    private static final int REQUESTS_PER_WAVE = 200;
+    private static final int THREADS = 8;
+    // Each round answers one prompt; a wave needs far fewer of them than it has requests.
+    private static final int MAX_ROUNDS = REQUESTS_PER_WAVE * 4;
+
+    private static final int GRANT = 0;
+    private static final int DENY = 1;
+    private static final int BLOCK = 2;
+
+    private final long seed = new Random().nextLong();
+    private final Random random = new Random(seed);
+    // The answers to the "show rationale" question, applied to every host.
+    private final Map<String, Boolean> rationale = new HashMap<>();
+    private final int count = WAVES * REQUESTS_PER_WAVE;
+    private final AtomicIntegerArray callbacks = new AtomicIntegerArray(count);
+    private final AtomicLongArray submitted = new AtomicLongArray(count);
+    private final AtomicLongArray latencies = new AtomicLongArray(count);
+    private final AtomicReferenceArray<PermissionSet> results = new AtomicReferenceArray<>(count);
+    private final PermissionSet[] requested = new PermissionSet[count];
+    private Application app;
+    private Permissions.Options options;
+    private ActivityController<PermissionsActivity> host;
+    // The prompt to go to settings currently shown, if any (main thread only).
+    private RationaleRenderer.Callback settingsPrompt;
+
+    private final RationaleRenderer renderer = new RationaleRenderer() {
+        @Override
+        public void showRationale(Activity activity, String title, String rationale,
+                                  Callback callback) {
+            callback.onResult(true);
+        }
+
+        @Override
+        public void showSettingsPrompt(Activity activity, String title, String message,
+                                       String settingsText, Callback callback) {
+            settingsPrompt = callback;
+        }
+
+        @Override
+        public void dismiss(Activity activity) {
+            settingsPrompt = null;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        app = RuntimeEnvironment.getApplication();
+        PermissionCache.invalidate();
+        options = new Permissions.Options().setRationaleRenderer(renderer);
+    }
+
+    @After
+    public void tearDown() {
+        closeHost();
+        PermissionCache.invalidate();
+    }
+
+    @Test
+    public void everyRequestIsResolvedExactlyOnce() throws InterruptedException {
+        for (int wave = 0; wave < WAVES; wave++) {
+            resetPermissions();
+            int first = wave * REQUESTS_PER_WAVE;
+            for (int i = first; i < first + REQUESTS_PER_WAVE; i++) {
+                requested[i] = randomPermissions();
+            }
+            fire(first);
+            answerPrompts();
+        }
+
+        int lost = 0, duplicate = 0, resolvedCount = 0;
+        long[] resolved = new long[count];
+        for (int i = 0; i < count; i++) {
+            int calls = callbacks.get(i);
+            if (calls == 0) {
+                lost++;
+            } else if (calls > 1) {
+                duplicate++;
+            } else {
+                resolved[resolvedCount++] = latencies.get(i);
+                if (results.get(i) != null) {
+                    assertEquals("Seed " + seed, requested[i], results.get(i));
+                }
+            }
+        }
+        long[] sorted = Arrays.copyOf(resolved, resolvedCount);
+        Arrays.sort(sorted);
+        System.out.println("Requests: " + count + ", lost: " + lost + ", duplicate: "
+                + duplicate + ", p50: " + percentileMillis(sorted, 50) + " ms, p99: "
+                + percentileMillis(sorted, 99) + " ms, seed: " + seed);
+        assertEquals("Lost callbacks, seed " + seed, 0, lost);
+        assertEquals("Duplicate callbacks, seed " + seed, 0, duplicate);
+        assertEquals("Retained requests, seed " + seed, 0, RequestBroker.getRetainedCount());
+    }
+
+    /**
+     * Revokes all of the permissions and randomizes whether a rationale would be shown for
+     * them, as if the user had reset them in settings.
+     */
+    private void resetPermissions() {
+        shadowOf(app).denyPermissions(PERMISSIONS);
+        for (String permission : PERMISSIONS) {
+            rationale.put(permission, random.nextBoolean());
+        }
+        PermissionCache.invalidate();
+    }
+
+    private PermissionSet randomPermissions() {
+        int mask = 1 + random.nextInt((1 << PERMISSIONS.length) - 1);
+        List<String> permissions = new ArrayList<>();
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if ((mask & (1 << i)) != 0) permissions.add(PERMISSIONS[i]);
+        }
+        return PermissionSet.of(permissions);
+    }
+
+    /**
+     * Makes a wave of requests, and waits until all of them have been submitted. The pool makes
+     * the requests with a callback, and posts those with a handler to the main thread.
+     */
+    private void fire(int first) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        for (int i = first; i < first + REQUESTS_PER_WAVE; i++) {
+            final int index = i;
+            final boolean withHandler = random.nextBoolean();
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!withHandler) {
+                        request(index);
+                        return;
+                    }
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            check(index);
+                        }
+                    });
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue("Requests not submitted, seed " + seed,
+                pool.awaitTermination(30, TimeUnit.SECONDS));
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private void request(final int index) {
+        submitted.set(index, System.nanoTime());
+        Permissions.request(app, requested[index].toArray(), null, options,
+                Permissions.DIRECT_EXECUTOR, new PermissionCallback() {
+                    @Override
+                    public void onResult(PermissionResult result) {
+                        resolve(index, result.getRequested());
+                    }
+                });
+    }
+
+    private void check(final int index) {
+        submitted.set(index, System.nanoTime());
+        Permissions.check(app, requested[index].toArray(), null, options,
+                new PermissionHandler() {
+                    @Override
+                    public void onGranted() {
+                        resolve(index, null);
+                    }
+
+                    @Override
+                    public void onDenied(Context context, PermissionSet deniedPermissions) {
+                        resolve(index, null);
+                    }
+
+                    @Override
+                    public void onJustBlocked(Context context, PermissionSet justBlockedSet,
+                                              PermissionSet deniedPermissions) {
+                        resolve(index, null);
+                    }
+                });
+    }
+
+    /**
+     * Counts a callback of the request with the given index.
+     *
+     * @param requested the permissions of the result, or null for a handler.
+     */
+    private void resolve(int index, PermissionSet requested) {
+        if (callbacks.incrementAndGet(index) == 1) {
+            latencies.set(index, System.nanoTime() - submitted.get(index));
+            results.set(index, requested);
+        }
+    }
+
+    /**
+     * Answers the prompts one after the other, whether they are shown by a new host or handed
+     * over to the current one, until no request is pending any more.
+     */
+    private void answerPrompts() {
+        ShadowActivity.PermissionsRequest answered = null;
+        for (int round = 0; RequestBroker.getRetainedCount() > 0; round++) {
+            assertTrue("Stalled with " + RequestBroker.getRetainedCount()
+                    + " pending requests, seed " + seed, round < MAX_ROUNDS);
+            shadowOf(Looper.getMainLooper()).idle();
+            Intent intent;
+            while ((intent = shadowOf(app).getNextStartedActivity()) != null) {
+                // The settings screens opened by the hosts are logged here too.
+                if (intent.getComponent() == null || !intent.getComponent().getClassName()
+                        .equals(PermissionsActivity.class.getName())) {
+                    continue;
+                }
+                closeHost();
+                host = Robolectric.buildActivity(PermissionsActivity.class, intent);
+                applyRationale();
+                host.setup();
+                shadowOf(Looper.getMainLooper()).idle();
+            }
+            if (settingsPrompt != null) {
+                answerSettingsPrompt();
+                continue;
+            }
+            ShadowActivity.PermissionsRequest asked =
+                    host == null ? null : shadowOf(host.get()).getLastRequestedPermission();
+            if (asked == null || asked == answered) continue;
+            answered = asked;
+            answer(asked);
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private void answer(ShadowActivity.PermissionsRequest asked) {
+        assertEquals(RequestFlow.RC_PERMISSION, asked.requestCode);
+        String[] permissions = asked.requestedPermissions;
+        int[] grantResults = new int[permissions.length];
+        for (int i = 0; i < permissions.length; i++) {
+            switch (random.nextInt(3)) {
+                case GRANT:
+                    shadowOf(app).grantPermissions(permissions[i]);
+                    grantResults[i] = PackageManager.PERMISSION_GRANTED;
+                    break;
+                case DENY:
+                    rationale.put(permissions[i], true);
+                    grantResults[i] = PackageManager.PERMISSION_DENIED;
+                    break;
+                case BLOCK:
+                    // Denied with "don't ask again": no rationale is shown any more.
+                    rationale.put(permissions[i], false);
+                    grantResults[i] = PackageManager.PERMISSION_DENIED;
+                    break;
+            }
+        }
+        applyRationale();
+        host.get().onRequestPermissionsResult(RequestFlow.RC_PERMISSION, permissions,
+                grantResults);
+    }
+
+    /**
+     * Declines the prompt to go to settings, or follows it and comes back from settings after
+     * having granted some of the permissions and reset some others to be asked again.
+     */
+    private void answerSettingsPrompt() {
+        RationaleRenderer.Callback prompt = settingsPrompt;
+        settingsPrompt = null;
+        if (random.nextBoolean()) {
+            prompt.onResult(false);
+            return;
+        }
+        prompt.onResult(true);
+        ShadowActivity.IntentForResult settings;
+        do {
+            // The launches of the hosts are logged here too.
+            settings = shadowOf(host.get()).getNextStartedActivityForResult();
+            assertNotNull("Settings not opened, seed " + seed, settings);
+        } while (settings.requestCode != RequestFlow.RC_SETTINGS);
+        for (String permission : PERMISSIONS) {
+            switch (random.nextInt(3)) {
+                case GRANT:
+                    shadowOf(app).grantPermissions(permission);
+                    break;
+                case DENY:
+                    // Reset, so that it is asked again.
+                    rationale.put(permission, true);
+                    break;
+                default:
+                    break;
+            }
+        }
+        applyRationale();
+        shadowOf(host.get()).receiveResult(settings.intent, Activity.RESULT_CANCELED, null);
+    }
+
+    private void applyRationale() {
+        ShadowActivity activity = shadowOf(host.get());
+        for (Map.Entry<String, Boolean> entry : rationale.entrySet()) {
+            activity.setShouldShowRequestPermissionRationale(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Destroys the current host once it has finished.
+     */
+    private void closeHost() {
+        if (host != null && host.get().isFinishing()) {
+            host.destroy();
+            host = null;
+        }
+    }
+
+    private static double percentileMillis(long[] sorted, int percentile) {
+        if (sorted.length == 0) return 0;
+        int index = Math.min(sorted.length - 1, sorted.length * percentile / 100);
+        return sorted[index] / 1e6;
+    }
+
+}
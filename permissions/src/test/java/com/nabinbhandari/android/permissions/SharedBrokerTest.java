@@ -0,0 +1,140 @@
+package com.nabinbhandari.android.permissions;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs shared broker requests through {@link SharedBroker#LOCAL_CHANNEL}, i.e. with the broker
+ * of the main process in this process.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class SharedBrokerTest {
+
+    private static final String[] CAMERA = {Manifest.permission.CAMERA};
+
+    private final List<PermissionResult> results = new ArrayList<>();
+    private final PermissionCallback callback = new PermissionCallback() {
+        @Override
+        public void onResult(PermissionResult result) {
+            results.add(result);
+        }
+    };
+    private Application app;
+    private Permissions.Options options;
+
+    @Before
+    public void setUp() {
+        app = RuntimeEnvironment.getApplication();
+        SharedBroker.setChannel(SharedBroker.LOCAL_CHANNEL);
+        PermissionCache.invalidate();
+        options = new Permissions.Options().setUseSharedBroker(true);
+    }
+
+    @After
+    public void tearDown() {
+        SharedBroker.setChannel(null);
+        PermissionCache.invalidate();
+    }
+
+    @Test
+    public void requestsGetDistinctIds() {
+        PermissionFuture first = request();
+        PermissionFuture second = request();
+
+        assertNotEquals(0, first.getRequestId());
+        assertNotEquals(0, second.getRequestId());
+        assertNotEquals(first.getRequestId(), second.getRequestId());
+
+        first.cancel(true);
+        second.cancel(true);
+        closePrompt();
+    }
+
+    @Test
+    public void cancelRemovesRequestFromBrokerAndClosesPrompt() {
+        PermissionFuture future = request();
+        assertEquals(1, SharedBroker.getPendingCount());
+
+        assertTrue(future.cancel(true));
+        assertEquals(0, SharedBroker.getPendingCount());
+
+        // The prompt of the main process serves no request any more, so it closes on start.
+        PermissionsActivity activity = closePrompt();
+        assertTrue(activity.isFinishing());
+        assertNull(shadowOf(activity).getLastRequestedPermission());
+        shadowOf(Looper.getMainLooper()).idle();
+        assertTrue(future.isCancelled());
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void cancelledRequestIsNotDeliveredWhileJoinedOneIs() {
+        PermissionFuture cancelled = request();
+        PermissionFuture kept = request();
+        assertEquals(2, SharedBroker.getPendingCount());
+
+        cancelled.cancel(true);
+        assertEquals(1, SharedBroker.getPendingCount());
+
+        PermissionsActivity activity = startPrompt().get();
+        assertFalse(activity.isFinishing());
+        shadowOf(app).grantPermissions(CAMERA);
+        activity.onRequestPermissionsResult(RequestFlow.RC_PERMISSION, CAMERA,
+                new int[]{PackageManager.PERMISSION_GRANTED});
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(0, SharedBroker.getPendingCount());
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).isGranted());
+        assertTrue(kept.isDone());
+        assertTrue(cancelled.isCancelled());
+    }
+
+    private PermissionFuture request() {
+        return Permissions.request(app, CAMERA, null, options, Permissions.DIRECT_EXECUTOR,
+                callback);
+    }
+
+    private ActivityController<PermissionsActivity> startPrompt() {
+        shadowOf(Looper.getMainLooper()).idle();
+        Intent intent = shadowOf(app).getNextStartedActivity();
+        assertNotNull(intent);
+        return Robolectric.buildActivity(PermissionsActivity.class, intent).setup();
+    }
+
+    /**
+     * Starts the host of the pending prompt, which closes right away once all of its requests
+     * have been cancelled.
+     */
+    private PermissionsActivity closePrompt() {
+        PermissionsActivity activity = startPrompt().get();
+        shadowOf(Looper.getMainLooper()).idle();
+        return activity;
+    }
+
+}